@@ -0,0 +1,92 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares registering and removing in-flight requests in the lock-free
+ * table and in a synchronized map, as the number of calling threads grows.
+ * Run {@link #main} for 1 to 8 threads, or {@code gradle jmh} with
+ * {@code -t} for a single count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestTableBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Table {
+        final RequestTable table = new RequestTable();
+    }
+
+    @State(Scope.Benchmark)
+    public static class SynchronizedMap {
+        final Map<Integer, FutureImpl> map = new HashMap<>();
+        int sequence = 0;
+    }
+
+    @State(Scope.Thread)
+    public static class Request {
+        final FutureImpl future = new FutureImpl(null);
+    }
+
+    @Benchmark
+    public FutureImpl table(Table t, Request r) {
+        return t.table.remove(t.table.add(r.future));
+    }
+
+    @Benchmark
+    public FutureImpl synchronizedMap(SynchronizedMap m, Request r) {
+        int msgId;
+        synchronized (m) {
+            msgId = m.sequence++;
+            m.map.put(msgId, r.future);
+        }
+        synchronized (m) {
+            return m.map.remove(msgId);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            Options options = new OptionsBuilder()
+                    .include(RequestTableBenchmark.class.getName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.reflect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the handler calls of the reflection and the method handle
+ * invokers. Run with {@code gradle jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+    public static class Handler {
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public String concat(String a, long b) {
+            return a + b;
+        }
+    }
+
+    private final Handler handler = new Handler();
+
+    private ReflectionInvokerBuilder.ReflectionInvoker reflectionAdd;
+    private ReflectionInvokerBuilder.ReflectionInvoker reflectionConcat;
+    private ReflectionInvokerBuilder.ReflectionInvoker methodHandleAdd;
+    private ReflectionInvokerBuilder.ReflectionInvoker methodHandleConcat;
+
+    private Object[] addParams;
+    private Object[] concatParams;
+
+    @Setup
+    public void setup() throws Exception {
+        ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+        InvokerBuilder reflection = new ReflectionInvokerBuilder(mapper);
+        InvokerBuilder methodHandle = new MethodHandleInvokerBuilder(mapper);
+
+        reflectionAdd = build(reflection, "add", int.class, int.class);
+        reflectionConcat = build(reflection, "concat", String.class, long.class);
+        methodHandleAdd = build(methodHandle, "add", int.class, int.class);
+        methodHandleConcat = build(methodHandle, "concat", String.class, long.class);
+
+        addParams = new Object[] { 1, 2 };
+        concatParams = new Object[] { "a", 1L };
+    }
+
+    private static ReflectionInvokerBuilder.ReflectionInvoker build(InvokerBuilder builder,
+            String name, Class<?>... types) throws Exception {
+        return (ReflectionInvokerBuilder.ReflectionInvoker)
+                builder.buildInvoker(Handler.class.getMethod(name, types));
+    }
+
+    @Benchmark
+    public Object reflectionAdd() throws Exception {
+        return reflectionAdd.call(handler, addParams);
+    }
+
+    @Benchmark
+    public Object methodHandleAdd() throws Exception {
+        return methodHandleAdd.call(handler, addParams);
+    }
+
+    @Benchmark
+    public Object reflectionConcat() throws Exception {
+        return reflectionConcat.call(handler, concatParams);
+    }
+
+    @Benchmark
+    public Object methodHandleConcat() throws Exception {
+        return methodHandleConcat.call(handler, concatParams);
+    }
+}
@@ -0,0 +1,124 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides, when a request is about to run, whether the server still has
+ * capacity for it. Requests it sheds are answered at once with an
+ * {@link org.msgpack.rpc.error.OverloadError}.
+ * <p>
+ * Queue time is controlled in the manner of CoDel. Normally a request may
+ * wait up to the interval. Once every request has waited longer than the
+ * target delay for a whole interval, the queue is considered standing and
+ * only requests that waited less than the target run, so that the queue
+ * drains instead of serving requests their clients have given up on.
+ * An optional limit on the requests running at once sheds the rest.
+ */
+public class AdmissionController {
+    public static final long DEFAULT_TARGET_DELAY_MILLIS = 5;
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final long target;
+    private final long interval;
+    private final int maxConcurrency;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong shed = new AtomicLong();
+    // benign races: a stale value only delays entering or leaving the
+    // overloaded state by one request
+    private volatile long firstAboveTarget = 0;
+    private final AtomicLong lastSample = new AtomicLong(System.nanoTime());
+
+    public AdmissionController() {
+        this(DEFAULT_TARGET_DELAY_MILLIS, DEFAULT_INTERVAL_MILLIS, 0);
+    }
+
+    /**
+     * @param maxConcurrency the number of requests that may run at once, or
+     *                       0 for no limit
+     */
+    public AdmissionController(long targetDelayMillis, long intervalMillis, int maxConcurrency) {
+        this.target = TimeUnit.MILLISECONDS.toNanos(targetDelayMillis);
+        this.interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Decides whether a request received at the given time may run now.
+     * Every admitted request must be followed by {@link #release()}.
+     * @param receivedNanos the {@link System#nanoTime()} the request was received at
+     */
+    public boolean tryAcquire(long receivedNanos) {
+        final long now = System.nanoTime();
+        final long sojourn = now - receivedNanos;
+        // the sample before this one, to tell whether the queue was idle
+        final long previous = lastSample.getAndSet(now);
+        if (!admitSojourn(now, sojourn, previous)) {
+            shed.incrementAndGet();
+            return false;
+        }
+        if (running.incrementAndGet() > maxConcurrency && maxConcurrency > 0) {
+            running.decrementAndGet();
+            shed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean admitSojourn(long now, long sojourn, long previous) {
+        if (sojourn < target) {
+            firstAboveTarget = 0;
+            return true;
+        }
+        long first = firstAboveTarget;
+        if (first == 0 || now - previous > interval) {
+            // above target since now, or the queue has been idle meanwhile
+            first = now;
+            firstAboveTarget = now;
+        }
+        final long limit = now - first > interval ? target : interval;
+        return sojourn <= limit;
+    }
+
+    public void release() {
+        running.decrementAndGet();
+    }
+
+    /**
+     * Whether requests have waited longer than the target for a whole interval.
+     */
+    public boolean isOverloaded() {
+        final long first = firstAboveTarget;
+        return first != 0 && System.nanoTime() - first > interval;
+    }
+
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return the number of requests shed so far
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+}
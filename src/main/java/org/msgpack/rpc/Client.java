@@ -20,8 +20,6 @@ package org.msgpack.rpc;
 import java.io.Closeable;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 import org.msgpack.rpc.loop.EventLoop;
 import org.msgpack.rpc.address.Address;
@@ -31,8 +29,6 @@ import org.msgpack.rpc.config.TcpClientConfig;
 import org.msgpack.rpc.reflect.Reflect;
 
 public class Client extends Session implements Closeable {
-    private ScheduledFuture<?> timer;
-
     public Client(String host, int port) throws UnknownHostException {
         this(new IPAddress(host, port), new TcpClientConfig(), EventLoop.defaultEventLoop());
     }
@@ -77,25 +73,12 @@ public class Client extends Session implements Closeable {
 
     Client(Address address, ClientConfig config, EventLoop loop) {
         super(address, config, loop);
-        startTimer();
     }
     Client(Address address, ClientConfig config, EventLoop loop, Reflect reflect) {
         super(address, config, loop,reflect);
-        startTimer();
-    }
-
-    private void startTimer() {
-        Runnable command = new Runnable() {
-            public void run() {
-                stepTimeout();
-            }
-        };
-        timer = loop.getScheduledExecutor().scheduleAtFixedRate(
-                command, 1000, 1000, TimeUnit.MILLISECONDS);
     }
 
     public void close() {
-        timer.cancel(false);
         closeSession();
     }
 }
@@ -17,6 +17,8 @@
 //
 package org.msgpack.rpc;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -24,6 +26,7 @@ import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.msgpack.rpc.error.OverloadError;
 import org.msgpack.rpc.error.RemoteError;
 
 public class Future<V> implements java.util.concurrent.Future<V> {
@@ -78,18 +81,33 @@ public class Future<V> implements java.util.concurrent.Future<V> {
         return impl.isDone();
     }
 
+    /**
+     * Cancels the call. Waiters complete right away and the server is told
+     * to abandon the request, interrupting it if mayInterruptIfRunning.
+     */
     public boolean cancel(boolean mayInterruptIfRunning) {
-        // FIXME
-        return false;
+        return impl.cancel(mayInterruptIfRunning);
     }
 
     public boolean isCancelled() {
-        // FIXME
-        return false;
+        return impl.isCancelled();
     }
 
     @SuppressWarnings("unchecked")
     public V getResult() {
+        if (impl.isBound()) {
+            Object value = impl.getValue();
+            if (resultType == null) {
+                return (V) mapper.valueToTree(value);
+            } else if (value == null || resultType.equals(impl.getResultType())) {
+                return (V) value;
+            }
+            try {
+                return mapper.convertValue(value, resultType);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
         JsonNode result = impl.getResult();
         if (resultType == null) {
             return (V) result;
@@ -108,10 +126,41 @@ public class Future<V> implements java.util.concurrent.Future<V> {
         return impl.getError();
     }
 
+    /**
+     * Completes the given future with the result or the remote error.
+     * Must be called once this future is done.
+     */
+    void completeTo(CompletableFuture<V> future) {
+        if (isCancelled()) {
+            future.cancel(false);
+            return;
+        }
+        if (!getError().isNull()) {
+            future.completeExceptionally(toRemoteError());
+            return;
+        }
+        try {
+            future.complete(getResult());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
     private void checkThrowError() {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
         if (!getError().isNull()) {
             // FIXME exception
-            throw new RemoteError(getError());
+            throw toRemoteError();
+        }
+    }
+
+    private RemoteError toRemoteError() {
+        JsonNode error = getError();
+        if (OverloadError.CODE.equals(error.asText())) {
+            return new OverloadError(error);
         }
+        return new RemoteError(error);
     }
 }
@@ -17,26 +17,56 @@
 //
 package org.msgpack.rpc;
 
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 
-class FutureImpl {
+class FutureImpl implements TimerTask {
     private final Session session;
     private Runnable callback = null;
 
     private final Object lock = new Object();
-    private int timeout;
+    private int messageId;
+    private boolean byMethodId;
+    private volatile Timeout timeout;
     private volatile boolean done = false;
+    private volatile boolean cancelled = false;
 
+    private final JavaType resultType;
+    private final ObjectReader resultReader;
     private JsonNode result;
+    private Object value;
+    private boolean bound = false;
     private JsonNode error;
 
     FutureImpl(Session session) {
+        this(session, null, null);
+    }
+
+    /**
+     * @param resultType   the type the result is bound to when it arrives,
+     *                     or null to keep it as a tree
+     * @param resultReader the reader for the result type, shared by the
+     *                     calls that expect it
+     */
+    FutureImpl(Session session, JavaType resultType, ObjectReader resultReader) {
         this.session = session;
-        this.timeout = session.getRequestTimeout();
+        this.resultType = resultType;
+        this.resultReader = resultReader;
     }
 
     void attachCallback(Runnable callback) {
@@ -48,7 +78,12 @@ class FutureImpl {
             }
         }
         if (was_already_done) {
-            session.getEventLoop().getWorkerExecutor().submit(callback);
+            try {
+                session.getEventLoop().getWorkerExecutor().submit(callback);
+            } catch (RejectedExecutionException e) {
+                // a bounded worker pool is full
+                callback.run();
+            }
         }
     }
 
@@ -60,30 +95,28 @@ class FutureImpl {
         }
     }
 
+    /**
+     * Waits for the result. If the wait gives up first, the request is
+     * dropped from the session and completes with a "timedout" error, just
+     * as when its timer expires.
+     */
     void join(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
         long end_time = System.currentTimeMillis() + unit.toMillis(timeout);
-        boolean run_callback = false;
         synchronized (lock) {
             while (!done) {
                 long timeout_remaining = end_time - System.currentTimeMillis();
                 if (timeout_remaining <= 0) break;
                 lock.wait(timeout_remaining);
             }
-
-            if (!done) {
-                ArrayNode error = session.getEventLoop().getObjectMapper().createArrayNode();
-                error.add("timedout");
-                this.error = error;
-                done = true;
-                lock.notifyAll();
-                run_callback = true;
+            if (done) {
+                return;
             }
         }
-        if (run_callback && callback != null) {
-            // FIXME #SF submit?
-            // session.getEventLoop().getWorkerExecutor().submit(callback);
-            callback.run();
-        }
+        session.onTimeout(messageId);
+        // a response that removed the request first may still be completing
+        ArrayNode error = session.getEventLoop().getObjectMapper().createArrayNode();
+        error.add("timedout");
+        complete(null, null, false, error, false);
     }
 
     public boolean isDone() {
@@ -94,34 +127,137 @@ class FutureImpl {
         return result;
     }
 
+    int getMessageId() {
+        return messageId;
+    }
+
+    void setMessageId(int messageId) {
+        this.messageId = messageId;
+    }
+
+    /**
+     * @return whether the request was sent with the server's method id
+     *         in place of the name
+     */
+    boolean isByMethodId() {
+        return byMethodId;
+    }
+
+    void setByMethodId(boolean byMethodId) {
+        this.byMethodId = byMethodId;
+    }
+
+    /**
+     * Attaches the pending timeout, cancelled once a result arrives.
+     */
+    void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+        if (done) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Removes the request from the session and tells the server to abandon it.
+     * @return false if the request was already done
+     */
+    boolean cancel(boolean mayInterruptIfRunning) {
+        return session.cancelRequest(this, mayInterruptIfRunning);
+    }
+
+    /**
+     * Completes the request as cancelled, with a "cancelled" error.
+     */
+    boolean setCancelled() {
+        ArrayNode error = session.getEventLoop().getObjectMapper().createArrayNode();
+        error.add("cancelled");
+        return complete(null, null, false, error, true);
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancelTimeout() {
+        Timeout t = timeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+    /**
+     * Called by the timer when the request expires.
+     */
+    public void run(Timeout timeout) {
+        session.onTimeout(messageId);
+    }
+
+    JavaType getResultType() {
+        return resultType;
+    }
+
+    /**
+     * Whether the result was bound to the result type instead of kept as a tree.
+     */
+    boolean isBound() {
+        return bound;
+    }
+
+    Object getValue() {
+        return value;
+    }
+
     public JsonNode getError() {
         return error;
     }
 
     public void setResult(JsonNode result, JsonNode error) {
+        complete(result, null, false, error, false);
+    }
+
+    /**
+     * Reads the result the parser is positioned at. Successful results are
+     * bound straight to the result type; errors keep the result as a tree.
+     */
+    void readResult(ObjectMapper mapper, JsonParser parser, JsonNode error) throws IOException {
+        final boolean isNull = parser.getCurrentToken() == JsonToken.VALUE_NULL;
+        if (resultType == null || !error.isNull()) {
+            complete(isNull ? NullNode.getInstance() : mapper.<JsonNode>readTree(parser), null, false, error, false);
+            return;
+        }
+        Object value = null;
+        if (!isNull) {
+            try {
+                value = resultReader.readValue(parser);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                // same as a failed conversion of the tree
+                value = null;
+            }
+        }
+        complete(null, value, true, error, false);
+    }
+
+    private boolean complete(JsonNode result, Object value, boolean bound, JsonNode error,
+                             boolean cancelled) {
         synchronized (lock) {
             if (done) {
-                return;
+                return false;
             }
 
+            this.cancelled = cancelled;
             this.result = result;
+            this.value = value;
+            this.bound = bound;
             this.error = error;
             this.done = true;
             lock.notifyAll();
         }
+        cancelTimeout();
         if (callback != null) {
             // FIXME #SF submit?
             // session.getEventLoop().getWorkerExecutor().submit(callback);
             callback.run();
         }
-    }
-
-    boolean stepTimeout() {
-        if (timeout <= 0) {
-            return true;
-        } else {
-            timeout--;
-            return false;
-        }
+        return true;
     }
 }
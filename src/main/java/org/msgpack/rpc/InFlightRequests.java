@@ -0,0 +1,72 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Requests of one connection that are queued or running on the server, keyed
+ * by msgid, so that a cancel notification or a closed connection can abandon
+ * them.
+ */
+public class InFlightRequests {
+    private final ConcurrentMap<Integer, Request> requests = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a request before it is dispatched.
+     */
+    public void add(Request request) {
+        request.setInFlight(this);
+        requests.put(request.getMessageID(), request);
+    }
+
+    void remove(Request request) {
+        requests.remove(request.getMessageID(), request);
+    }
+
+    /**
+     * Abandons the request with the given msgid. A queued request is never
+     * dispatched and the response of a running one is dropped.
+     * @return false if no such request is in flight
+     */
+    public boolean cancel(int msgId, boolean mayInterruptIfRunning) {
+        Request request = requests.remove(msgId);
+        if (request == null) {
+            return false;
+        }
+        request.cancel(mayInterruptIfRunning);
+        return true;
+    }
+
+    /**
+     * Abandons every request, e.g. when the connection is closed.
+     */
+    public void cancelAll() {
+        for (Iterator<Request> it = requests.values().iterator(); it.hasNext();) {
+            Request request = it.next();
+            it.remove();
+            request.cancel(false);
+        }
+    }
+
+    public int size() {
+        return requests.size();
+    }
+}
@@ -17,7 +17,15 @@
 //
 package org.msgpack.rpc;
 
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+
+import org.msgpack.rpc.error.RPCError;
 import org.msgpack.rpc.message.ResponseMessage;
+import org.msgpack.rpc.reflect.ArgumentsReader;
 import org.msgpack.rpc.transport.MessageSendable;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -28,6 +36,20 @@ public class Request implements Callback<Object> {
     private int msgId;
     private String method;
     private ArrayNode args;
+    private ArgumentsReader reader;
+    private Object[] params;
+    private Exception argumentsError;
+    private InFlightRequests inFlight;
+    private volatile boolean cancelled = false;
+    private Thread thread;
+    private boolean interrupted = false;
+    private final long receivedNanos = System.nanoTime();
+    private long deadline = 0;
+    private boolean hasDeadline = false;
+    private ByteBuf frame;
+    private AdmissionController admission;
+
+    private static final ThreadLocal<Request> current = new ThreadLocal<>();
 
     public Request(MessageSendable channel, int msgId, String method, ArrayNode args) {
         this.channel = channel;
@@ -43,18 +65,170 @@ public class Request implements Callback<Object> {
         this.args = args;
     }
 
+    /**
+     * Creates a request whose arguments were already bound by the given reader.
+     * @param argumentsError the error the reader raised, if binding failed
+     */
+    public Request(MessageSendable channel, int msgId, String method,
+                   ArgumentsReader reader, Object[] params, Exception argumentsError) {
+        this.channel = channel;
+        this.msgId = msgId;
+        this.method = method;
+        this.reader = reader;
+        this.params = params;
+        this.argumentsError = argumentsError;
+    }
+
     public String getMethodName() {
         return method;
     }
 
     public ArrayNode getArguments() {
+        if (args == null && reader != null) {
+            args = reader.toArgumentsNode(params);
+        }
         return args;
     }
 
+    /**
+     * Returns the parameters bound when the request was decoded, if that was
+     * done by the given reader.
+     * @return the parameters, or null if they must be read from {@link #getArguments()}
+     * @throws Exception the error raised while binding them
+     */
+    public Object[] getBoundArguments(ArgumentsReader reader) throws Exception {
+        if (this.reader != reader) {
+            return null;
+        }
+        if (argumentsError != null) {
+            throw argumentsError;
+        }
+        return params;
+    }
+
     public int getMessageID() {
         return msgId;
     }
 
+    /**
+     * Returns the request the current thread is dispatching, so that
+     * handlers called through reflection can reach it.
+     * @return the request, or null outside of a dispatch
+     */
+    public static Request current() {
+        return current.get();
+    }
+
+    /**
+     * The {@link System#nanoTime()} at which the request was decoded.
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * Sets how long the client waits for the response, counted from when
+     * the request was decoded.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.deadline = receivedNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.hasDeadline = true;
+    }
+
+    /**
+     * Whether the client sent the time it waits for the response.
+     */
+    public boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /**
+     * Milliseconds left until the client gives up, 0 once expired, or
+     * Long.MAX_VALUE if the client did not send a deadline.
+     */
+    public long getRemainingMillis() {
+        if (!hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return hasDeadline && deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Whether the client cancelled this request. Long-running handlers may
+     * poll this and stop early; their result is discarded anyway.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Keeps the frame the arguments were read from, because some of them
+     * are views of it. A request releases it once its response has been
+     * written, a notification once it has been dispatched.
+     */
+    public synchronized void holdFrame(ByteBuf frame) {
+        this.frame = frame;
+    }
+
+    synchronized void releaseFrame() {
+        if (frame != null) {
+            frame.release();
+            frame = null;
+        }
+    }
+
+    /**
+     * Holds a permit of the controller until the response is sent, which
+     * for asynchronous handlers is after the dispatch has returned.
+     */
+    synchronized void admit(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    private void releaseAdmission() {
+        if (admission != null) {
+            admission.release();
+            admission = null;
+        }
+    }
+
+    void setInFlight(InFlightRequests inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    synchronized void cancel(boolean mayInterruptIfRunning) {
+        cancelled = true;
+        if (mayInterruptIfRunning && thread != null) {
+            interrupted = true;
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Marks the current thread as running this request until {@link #exit()}.
+     */
+    synchronized void enter() {
+        thread = Thread.currentThread();
+        current.set(this);
+    }
+
+    void exit() {
+        current.remove();
+        boolean clear;
+        synchronized (this) {
+            thread = null;
+            clear = interrupted;
+        }
+        if (clear) {
+            // do not leak the cancel to the next task of this thread
+            Thread.interrupted();
+        }
+    }
+
     public void sendResult(Object result) {
         sendResponse(result, null);
     }
@@ -67,12 +241,60 @@ public class Request implements Callback<Object> {
         sendResponse(data, error);
     }
 
+    /**
+     * Sends the result the stage completes with, or its error as the
+     * server would for an exception thrown by the handler.
+     */
+    public void sendResultWhenComplete(CompletionStage<?> stage) {
+        if (stage == null) {
+            sendResult(null);
+            return;
+        }
+        stage.whenComplete((result, error) -> {
+            if (error == null) {
+                sendResult(result);
+                return;
+            }
+            if (error instanceof CompletionException && error.getCause() != null) {
+                error = error.getCause();
+            }
+            if (error instanceof RPCError) {
+                sendError(((RPCError) error).getCode(), error);
+            } else {
+                sendError(error.getMessage() == null ? "" : error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Drops the request without a response.
+     */
+    synchronized void discard() {
+        if (inFlight != null) {
+            inFlight.remove(this);
+        }
+        channel = null;
+        releaseFrame();
+        releaseAdmission();
+    }
+
     public synchronized void sendResponse(Object result, Object error) {
         if (channel == null) {
             return;
         }
+        if (inFlight != null) {
+            inFlight.remove(this);
+        }
+        releaseAdmission();
+        if (cancelled) {
+            channel = null;
+            releaseFrame();
+            return;
+        }
 
-        ResponseMessage msg = new ResponseMessage(msgId, error, result);
+        // the message releases the frame once the result has been written
+        ResponseMessage msg = new ResponseMessage(msgId, error, result, frame);
+        frame = null;
         channel.sendMessage(msg);
         channel = null;
     }
@@ -0,0 +1,118 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-flight requests of a session, keyed by msgid.
+ * <p>
+ * Msgids are handed out sequentially, so the low bits index a ring of slots
+ * that is written with a single CAS and read without locking or boxing. A
+ * request whose slot is still held by an older, unanswered request goes to a
+ * small overflow map instead.
+ */
+class RequestTable {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicInteger sequence = new AtomicInteger(0); // FIXME rand()?
+    private final AtomicReferenceArray<FutureImpl> slots;
+    private final int mask;
+    private final ConcurrentMap<Integer, FutureImpl> overflow = new ConcurrentHashMap<>();
+
+    RequestTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    RequestTable(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Assigns the next msgid to the request and registers it.
+     * @return the msgid
+     */
+    int add(FutureImpl f) {
+        final int msgId = sequence.getAndIncrement();
+        f.setMessageId(msgId);
+        if (!slots.compareAndSet(msgId & mask, null, f)) {
+            overflow.put(msgId, f);
+        }
+        return msgId;
+    }
+
+    /**
+     * Removes the request with the given msgid.
+     * @return the request, or null if it was already removed
+     */
+    FutureImpl remove(int msgId) {
+        final int index = msgId & mask;
+        final FutureImpl f = slots.get(index);
+        if (f != null && f.getMessageId() == msgId) {
+            // lost the race to a concurrent remove when the CAS fails
+            return slots.compareAndSet(index, f, null) ? f : null;
+        }
+        if (overflow.isEmpty()) {
+            return null;
+        }
+        return overflow.remove(msgId);
+    }
+
+    List<FutureImpl> removeAll() {
+        List<FutureImpl> removed = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            final FutureImpl f = slots.getAndSet(i, null);
+            if (f != null) {
+                removed.add(f);
+            }
+        }
+        for (Iterator<FutureImpl> it = overflow.values().iterator(); it.hasNext();) {
+            final FutureImpl f = it.next();
+            if (overflow.remove(f.getMessageId(), f)) {
+                removed.add(f);
+            }
+        }
+        return removed;
+    }
+
+    boolean isEmpty() {
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                return false;
+            }
+        }
+        return overflow.isEmpty();
+    }
+}
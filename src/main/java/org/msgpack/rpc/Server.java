@@ -19,19 +19,33 @@ package org.msgpack.rpc;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import org.msgpack.rpc.address.Address;
 import org.msgpack.rpc.builder.DefaultDispatcherBuilder;
 import org.msgpack.rpc.builder.DispatcherBuilder;
 import org.msgpack.rpc.address.IPAddress;
+import org.msgpack.rpc.dispatcher.ArgumentsReaderResolver;
+import org.msgpack.rpc.dispatcher.BulkheadResolver;
 import org.msgpack.rpc.dispatcher.Dispatcher;
+import org.msgpack.rpc.dispatcher.MethodNamesResolver;
+import org.msgpack.rpc.dispatcher.NonBlockingResolver;
 import org.msgpack.rpc.config.ClientConfig;
 import org.msgpack.rpc.config.ServerConfig;
 import org.msgpack.rpc.config.TcpServerConfig;
 import org.msgpack.rpc.transport.ServerTransport;
 import org.msgpack.rpc.transport.MessageSendable;
 import org.msgpack.rpc.loop.EventLoop;
+import org.msgpack.rpc.error.OverloadError;
 import org.msgpack.rpc.error.RPCError;
+import org.msgpack.rpc.message.Messages;
+import org.msgpack.rpc.reflect.ArgumentsReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +58,10 @@ public class Server extends SessionPool {
     private Dispatcher dp;
     private ServerTransport stran;
     private DispatcherBuilder dispatcherBuilder = new DefaultDispatcherBuilder();
+    private final Map<String, ExecutorService> bulkheads = new ConcurrentHashMap<>();
+    private final Map<String, String> methodBulkheads = new ConcurrentHashMap<>();
+    private volatile AdmissionController admissionController;
+    private volatile MethodIds methodIds;
 
     public Server() {
         super();
@@ -105,11 +123,187 @@ public class Server extends SessionPool {
         if (stran != null) {
             stran.close();
         }
+        for (ExecutorService executor : bulkheads.values()) {
+            executor.shutdown();
+        }
         super.close();
     }
 
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Checks every request against the controller before it runs and
+     * answers the ones it sheds with an {@link OverloadError}.
+     * @param admissionController the controller, or null to run every request
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Registers a named executor with at most maxConcurrency running and
+     * queueCapacity queued requests. Methods assigned to it, by
+     * {@link org.msgpack.rpc.annotation.Bulkhead} or
+     * {@link #setBulkhead(String, String)}, run there instead of on the
+     * worker executor; requests beyond both limits fail at once.
+     */
+    public void addBulkhead(String name, int maxConcurrency, int queueCapacity) {
+        addBulkhead(name, EventLoop.newBoundedExecutor("msgpack-rpc-" + name, maxConcurrency, queueCapacity));
+    }
+
+    /**
+     * Registers a named executor. It is shut down when the server is closed.
+     */
+    public void addBulkhead(String name, ExecutorService executor) {
+        ExecutorService old = bulkheads.put(name, executor);
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Runs the method on the named executor, overriding its annotation.
+     */
+    public void setBulkhead(String method, String name) {
+        methodBulkheads.put(method, name);
+    }
+
+    /**
+     * @return the executor the method is assigned to, or null for the
+     *         worker executor
+     */
+    public ExecutorService getBulkhead(String method) {
+        String name = methodBulkheads.get(method);
+        if (name == null && dp instanceof BulkheadResolver) {
+            name = ((BulkheadResolver) dp).getBulkhead(method);
+        }
+        if (name == null) {
+            return null;
+        }
+        ExecutorService executor = bulkheads.get(name);
+        if (executor == null) {
+            logger.warn("No bulkhead named " + name + " for " + method + ", using the worker executor");
+        }
+        return executor;
+    }
+
+    /**
+     * @return the reader that binds the arguments of the method directly,
+     *         or null if the dispatcher cannot provide one
+     */
+    public ArgumentsReader getArgumentsReader(String method) {
+        if (dp instanceof ArgumentsReaderResolver) {
+            return ((ArgumentsReaderResolver) dp).getArgumentsReader(method);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the method is annotated {@link org.msgpack.rpc.annotation.NonBlocking}
+     *         and may run on the I/O thread
+     */
+    public boolean isNonBlocking(String method) {
+        return dp instanceof NonBlockingResolver && ((NonBlockingResolver) dp).isNonBlocking(method);
+    }
+
+    /**
+     * Numeric ids of the methods of the dispatcher. The low bits are the
+     * position of the method in name order, the bits above a hash of all
+     * the names, so that an id fetched from a server with other
+     * methods, or before {@link #serve} replaced the dispatcher, is
+     * rejected like an unknown method instead of running another one.
+     * A client that fetched them with a {@link Messages#METHODS} request
+     * may send the id in place of the method name; names are still
+     * accepted.
+     * @return the ids by method name, empty if the dispatcher does not
+     *         list its methods
+     */
+    public Map<String, Integer> getMethodIds() {
+        return methodIds().ids;
+    }
+
+    /**
+     * @return the name of the method with the given id, or null if there
+     *         is no such method
+     */
+    public String getMethodName(int id) {
+        MethodIds m = methodIds();
+        int index = id & m.indexMask;
+        if ((id & ~m.indexMask) != m.version || index >= m.names.length) {
+            return null;
+        }
+        return m.names[index];
+    }
+
+    private MethodIds methodIds() {
+        MethodIds m = methodIds;
+        Dispatcher current = dp;
+        if (m == null || m.dp != current) {
+            // racing threads build equal tables
+            m = new MethodIds(current);
+            methodIds = m;
+        }
+        return m;
+    }
+
+    private static class MethodIds {
+        final Dispatcher dp;
+        final String[] names;
+        final int indexMask;
+        final int version;
+        final Map<String, Integer> ids;
+
+        MethodIds(Dispatcher dp) {
+            this.dp = dp;
+            Collection<String> methods = dp instanceof MethodNamesResolver
+                    ? ((MethodNamesResolver) dp).getMethodNames()
+                    : Collections.<String>emptyList();
+            names = methods.toArray(new String[methods.size()]);
+            Arrays.sort(names);
+            int indexBits = 32 - Integer.numberOfLeadingZeros(Math.max(names.length - 1, 1));
+            indexMask = (1 << indexBits) - 1;
+            // kept positive, so that the id is a plain int on the wire
+            version = (Arrays.hashCode(names) << indexBits) & Integer.MAX_VALUE;
+            Map<String, Integer> map = new HashMap<>();
+            for (int i = 0; i < names.length; i++) {
+                map.put(names[i], version | i);
+            }
+            ids = Collections.unmodifiableMap(map);
+        }
+    }
+
     public void onRequest(MessageSendable channel, int msgId, String method, ArrayNode args) {
-        Request request = new Request(channel, msgId, method, args);
+        onRequest(new Request(channel, msgId, method, args));
+    }
+
+    public void onRequest(Request request) {
+        if (request.isCancelled()) {
+            // abandoned while queued
+            request.discard();
+            return;
+        }
+        if (request.isExpired()) {
+            // the client gave up while the request was queued
+            logger.debug("Dropped expired request " + request.getMessageID() + " of " + request.getMethodName());
+            request.discard();
+            return;
+        }
+        if (Messages.METHODS.equals(request.getMethodName())) {
+            request.sendResult(getMethodIds());
+            return;
+        }
+        final AdmissionController admission = admissionController;
+        if (admission != null && !admission.tryAcquire(request.getReceivedNanos())) {
+            request.sendError(OverloadError.CODE);
+            return;
+        }
+        if (admission != null) {
+            request.admit(admission);
+        }
+        String method = request.getMethodName();
+        request.enter();
         try {
             dp.dispatch(request);
         }
@@ -124,15 +318,44 @@ public class Server extends SessionPool {
             } else {
                 request.sendError(e.getMessage());
             }
+        } finally {
+            request.exit();
+        }
+    }
+
+    /**
+     * Called when no executor accepted the request. Requests are answered
+     * with an error right away; notifications are dropped.
+     */
+    public void onRejected(Request request, boolean notify) {
+        if (notify) {
+            logger.warn("Dropped notification " + request.getMethodName() + ", executor is full");
+            request.releaseFrame();
+        } else {
+            request.sendError(OverloadError.CODE);
         }
     }
 
     public void onNotify(String method, ArrayNode args) {
-        Request request = new Request(method, args);
+        onNotify(new Request(method, args));
+    }
+
+    public void onNotify(Request request) {
+        final AdmissionController admission = admissionController;
+        if (admission != null && !admission.tryAcquire(request.getReceivedNanos())) {
+            logger.debug("Dropped notification " + request.getMethodName() + ", server is overloaded");
+            request.releaseFrame();
+            return;
+        }
         try {
             dp.dispatch(request);
         } catch (Exception e) {
-            logger.warn("Unexpected error occurred while dispatching " + method, e);
+            logger.warn("Unexpected error occurred while dispatching " + request.getMethodName(), e);
+        } finally {
+            request.releaseFrame();
+            if (admission != null) {
+                admission.release();
+            }
         }
     }
 }
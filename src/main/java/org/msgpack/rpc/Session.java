@@ -17,16 +17,22 @@
 //
 package org.msgpack.rpc;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.msgpack.rpc.address.Address;
+import org.msgpack.rpc.error.TransportError;
+import org.msgpack.rpc.message.EncodedMessage;
+import org.msgpack.rpc.message.Message;
+import org.msgpack.rpc.message.Messages;
 import org.msgpack.rpc.message.RequestMessage;
 import org.msgpack.rpc.message.NotifyMessage;
 import org.msgpack.rpc.reflect.Reflect;
@@ -34,31 +40,63 @@ import org.msgpack.rpc.transport.ClientTransport;
 import org.msgpack.rpc.config.ClientConfig;
 import org.msgpack.rpc.loop.EventLoop;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
+/**
+ * A connection to one server, on which methods are called and notified.
+ * <p>
+ * Unless {@link ClientConfig#setCallerThreadEncoding caller-thread encoding}
+ * is on, the arguments are serialized on an I/O thread after the call or
+ * notification has returned. They must not be modified until a call has
+ * completed; a notification gives no such signal, so its arguments should
+ * not be modified at all. Read-only {@link java.nio.ByteBuffer} arguments of
+ * 1 KiB or more are not even copied then: the frame is written straight
+ * from them. With caller-thread encoding, every argument, buffers included,
+ * has been copied by the time the method returns.
+ */
 public class Session {
+    // what the dispatchers answer for a method they do not have
+    private static final String NO_METHOD_ERROR = ".CallError.NoMethodError";
+    // how much longer than the timeout a blocking call waits for the timer
+    private static final long TIMEOUT_GRACE_MILLIS = 1000;
+
     protected Address address;
     protected EventLoop loop;
     private ClientTransport transport;
     private Reflect reflect;
 
-    private int requestTimeout;
-    private AtomicInteger seqid = new AtomicInteger(0); // FIXME rand()?
-    private Map<Integer, FutureImpl> reqtable = new HashMap<>();
+    private volatile long requestTimeoutMillis;
+    private volatile Executor completionExecutor;
+    private final boolean deadlinePropagation;
+    private final boolean callerThreadEncoding;
+    private final RequestTable reqtable = new RequestTable();
+    private final ConcurrentMap<JavaType, ObjectReader> resultReaders = new ConcurrentHashMap<>();
+    private final boolean methodIdNegotiation;
+    private volatile Map<String, Integer> methodIds = Collections.emptyMap();
 
     Session(Address address, ClientConfig config, EventLoop loop) {
-        this(address, config, loop, new Reflect(loop.getObjectMapper()));
+        this(address, config, loop, loop.getReflect());
     }
 
     Session(Address address, ClientConfig config, EventLoop loop, Reflect reflect) {
         this.address = address;
         this.loop = loop;
-        this.requestTimeout = config.getRequestTimeout();
+        this.requestTimeoutMillis = config.getRequestTimeoutMillis();
+        this.deadlinePropagation = config.isDeadlinePropagation();
+        this.callerThreadEncoding = config.isCallerThreadEncoding();
+        this.completionExecutor = config.getCompletionExecutor() != null
+                ? config.getCompletionExecutor() : loop.getWorkerExecutor();
         this.transport = loop.openTransport(config, this);
         this.reflect = reflect;
+        this.methodIdNegotiation = config.isMethodIdNegotiation();
+        if (methodIdNegotiation) {
+            negotiateMethodIds();
+        }
     }
 
     public <T> T proxy(Class<T> iface) {
@@ -79,21 +117,46 @@ public class Session {
      * @return
      */
     public int getRequestTimeout() {
-        return requestTimeout;
+        return (int) (requestTimeoutMillis / 1000);
     }
 
     public void setRequestTimeout(int requestTimeout) {
-        this.requestTimeout = requestTimeout;
+        this.requestTimeoutMillis = requestTimeout * 1000L;
+    }
+
+    /**
+     * Timeout milliseconds. 0 or less means no timeout.
+     */
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    public Executor getCompletionExecutor() {
+        return completionExecutor;
+    }
+
+    /**
+     * Sets the executor that completes the futures returned by callAsync,
+     * so that dependent stages never run on an I/O thread.
+     */
+    public void setCompletionExecutor(Executor completionExecutor) {
+        this.completionExecutor = completionExecutor;
     }
 
     public JsonNode callApply(String method, Object... args) {
-        Future<JsonNode> f = sendRequest(method, null, args);
+        long timeout = requestTimeoutMillis;
+        Future<JsonNode> f = sendRequest(method, null, args, timeout);
         while (true) {
             try {
-                if (requestTimeout <= 0){
+                if (timeout <= 0){
                     return f.get();
                 } else {
-                    return f.get(requestTimeout, TimeUnit.SECONDS);
+                    // the request's timer fails it first; this only guards a late timer
+                    return f.get(timeout + TIMEOUT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
                 }
             } catch (InterruptedException e) {
                 // FIXME
@@ -105,39 +168,32 @@ public class Session {
     }
 
     public <V> V callApply(final String method, final Class<V> resultClass, final Object... args) {
-        JavaType resultType = loop.getObjectMapper().constructType(resultClass);
-        Future<V> f = sendRequest(method, resultType, args);
-        while (true) {
-            try {
-                if (requestTimeout <= 0){
-                    return f.get();
-                } else {
-                    return f.get(requestTimeout, TimeUnit.SECONDS);
-                }
-            } catch (InterruptedException e) {
-                // FIXME
-            } catch (TimeoutException e) {
-                // FIXME
-                throw new RuntimeException("Time out to call method:" + method, e);
-            }
-        }
+        return callApply(method, loop.getObjectMapper().constructType(resultClass), args);
     }
 
     public <V> V callApply(final String method, final TypeReference<V> resultTypeReference, final Object... args) {
         JavaType resultType = loop.getObjectMapper().getTypeFactory().constructType(resultTypeReference);
-        Future<V> f = sendRequest(method, resultType, args);
+        return callApply(method, resultType, args);
+    }
+
+    /**
+     * Calls a method and binds its result straight to the given type.
+     */
+    public <V> V callApply(final String method, final JavaType resultType, final Object... args) {
+        long timeout = requestTimeoutMillis;
+        Future<V> f = sendRequest(method, resultType, args, timeout);
         while (true) {
             try {
-                if (requestTimeout <= 0){
+                if (timeout <= 0){
                     return f.get();
                 } else {
-                    return f.get(requestTimeout, TimeUnit.SECONDS);
+                    return f.get(timeout + TIMEOUT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
                 }
             } catch (InterruptedException e) {
                 // FIXME
             } catch (TimeoutException e) {
                 // FIXME
-                throw new RuntimeException("Time out to call method:" + method,e);
+                throw new RuntimeException("Time out to call method:" + method, e);
             }
         }
     }
@@ -158,96 +214,272 @@ public class Session {
         return sendRequest(method, resultType, args);
     }
 
+    public <T> Future<T> callAsyncApply(final String method, final JavaType resultType,
+                                        final Object... args) {
+        return sendRequest(method, resultType, args);
+    }
+
+    public CompletableFuture<JsonNode> callAsync(final String method, final Object... args) {
+        return sendRequestAsync(method, null, args);
+    }
+
+    public <T> CompletableFuture<T> callAsync(final String method, final Class<T> resultClass,
+                                              final Object... args) {
+        return sendRequestAsync(method, loop.getObjectMapper().constructType(resultClass), args);
+    }
+
+    public <T> CompletableFuture<T> callAsync(final String method, final TypeReference<T> resultTypeReference,
+                                              final Object... args) {
+        JavaType resultType = loop.getObjectMapper().getTypeFactory().constructType(resultTypeReference);
+        return sendRequestAsync(method, resultType, args);
+    }
+
+    /**
+     * Calls a method without blocking. The returned future is completed on
+     * the completion executor, exceptionally with a RemoteError if the call
+     * fails or times out.
+     */
+    public <T> CompletableFuture<T> callAsync(final String method, final JavaType resultType,
+                                              final Object... args) {
+        return sendRequestAsync(method, resultType, args);
+    }
+
+    /**
+     * Asks the server for its method ids. Once they arrive, requests and
+     * notifications carry the id in place of the method name; calls made
+     * before that, or to methods the server did not list, send the name.
+     * If the server does not support it, the future fails and names are
+     * kept. If the server later rejects an id, because its methods changed
+     * or the connection moved to another server, that call fails like an
+     * unknown method and the session goes back to names; it fetches the
+     * ids again if it was configured to negotiate them.
+     */
+    public CompletableFuture<Map<String, Integer>> negotiateMethodIds() {
+        return this.<Map<String, Integer>>callAsync(Messages.METHODS,
+                new TypeReference<Map<String, Integer>>() {}).thenApply(ids -> {
+                    if (ids != null) {
+                        methodIds = ids;
+                    }
+                    return ids;
+                });
+    }
+
+    /**
+     * @return the method ids in use, empty while names are sent
+     */
+    public Map<String, Integer> getMethodIds() {
+        return Collections.unmodifiableMap(methodIds);
+    }
+
+    /**
+     * Sends a notification. See the class documentation for when its
+     * arguments may be reused.
+     */
     public void notifyApply(final String method, final Object... args) {
         sendNotify(method, args);
     }
 
     private <T> Future<T> sendRequest(String method, JavaType resultType, Object[] args) {
-        int msgId = seqid.getAndAdd(1);
-        ArrayNode requestArgs = buildArgumentsArray(args);
-        RequestMessage msg = new RequestMessage(msgId, method, requestArgs);
-        FutureImpl f = new FutureImpl(this);
+        return sendRequest(method, resultType, args, requestTimeoutMillis);
+    }
 
-        synchronized (reqtable) {
-            reqtable.put(msgId, f);
+    /**
+     * @param timeout milliseconds until the request's timer fails it, 0 or
+     *                less for none
+     */
+    private <T> Future<T> sendRequest(String method, JavaType resultType, Object[] args, long timeout) {
+        FutureImpl f = new FutureImpl(this, resultType, resultReader(resultType));
+        int msgId = reqtable.add(f);
+        int methodId = methodId(method);
+        f.setByMethodId(methodId >= 0);
+        Message msg;
+        try {
+            msg = prepare(method, new RequestMessage(msgId, method, methodId, args,
+                    deadlinePropagation ? timeout : 0));
+        } catch (IllegalArgumentException e) {
+            reqtable.remove(msgId);
+            throw e;
         }
 
-        transport.sendMessage(msg);
+        if (timeout > 0) {
+            f.setTimeout(loop.getTimer().newTimeout(f, timeout, TimeUnit.MILLISECONDS));
+        }
+
+        try {
+            transport.sendMessage(msg);
+        } catch (TransportError e) {
+            if (reqtable.remove(msgId) != null) {
+                f.cancelTimeout();
+            }
+            throw e;
+        }
 
         return new Future<>(loop.getObjectMapper(), f, resultType);
     }
 
+    private <T> CompletableFuture<T> sendRequestAsync(String method, JavaType resultType, Object[] args) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Future<T> f;
+        try {
+            f = sendRequest(method, resultType, args);
+        } catch (TransportError e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        // cancelling the returned future cancels the call
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                f.cancel(true);
+            }
+        });
+        f.attachCallback(() -> {
+            try {
+                completionExecutor.execute(() -> f.completeTo(future));
+            } catch (RejectedExecutionException e) {
+                f.completeTo(future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Completes a pending request as cancelled and tells the server to
+     * abandon it.
+     * @return false if the request was already done
+     */
+    boolean cancelRequest(FutureImpl f, boolean mayInterruptIfRunning) {
+        if (reqtable.remove(f.getMessageId()) == null) {
+            return false;
+        }
+        f.setCancelled();
+        try {
+            sendNotify(Messages.CANCEL, new Object[] { f.getMessageId(), mayInterruptIfRunning });
+        } catch (TransportError e) {
+            // the server's response will be ignored
+        }
+        return true;
+    }
+
     private void sendNotify(String method, Object[] args) {
-        ArrayNode notifyArgs = buildArgumentsArray(args);
-        NotifyMessage msg = new NotifyMessage(method, notifyArgs);
-        transport.sendMessage(msg);
+        transport.sendMessage(prepare(method, new NotifyMessage(method, methodId(method), args)));
+    }
+
+    /**
+     * Serializes the message on the calling thread if the session is
+     * configured to, else leaves it to the I/O thread.
+     * @throws IllegalArgumentException if the arguments cannot be serialized
+     */
+    private Message prepare(String method, Message msg) {
+        if (!callerThreadEncoding) {
+            return msg;
+        }
+        try {
+            return EncodedMessage.encode(loop.getObjectMapper(), msg);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to serialize the arguments of " + method, e);
+        }
+    }
+
+    /**
+     * @return the reader that binds results to the type, built once per
+     *         type, or null to keep results as trees
+     */
+    private ObjectReader resultReader(JavaType resultType) {
+        if (resultType == null) {
+            return null;
+        }
+        ObjectReader reader = resultReaders.get(resultType);
+        if (reader == null) {
+            // racing threads may both build one, only the first is kept
+            reader = loop.getObjectMapper().reader(resultType);
+            ObjectReader previous = resultReaders.putIfAbsent(resultType, reader);
+            if (previous != null) {
+                reader = previous;
+            }
+        }
+        return reader;
+    }
+
+    private int methodId(String method) {
+        Integer id = methodIds.get(method);
+        return id == null ? -1 : id;
     }
 
-    private ArrayNode buildArgumentsArray(Object[] args) {
-        // Build the arguments array and serialize the arguments
-        final ArrayNode argArray = loop.getObjectMapper().createArrayNode();
-        if (args != null) {
-            for (Object arg : args) {
-                argArray.addPOJO(arg);
+    /**
+     * Drops the method ids once the server has rejected one of them.
+     */
+    private void checkMethodId(FutureImpl f, JsonNode error) {
+        if (!f.isByMethodId() || error == null || !NO_METHOD_ERROR.equals(error.asText())) {
+            return;
+        }
+        methodIds = Collections.emptyMap();
+        if (methodIdNegotiation) {
+            try {
+                // not on the I/O thread, which may have to send it
+                completionExecutor.execute(this::negotiateMethodIds);
+            } catch (RejectedExecutionException e) {
+                // names keep working
             }
         }
+    }
 
-        return argArray;
+    /**
+     * @return whether requests are still waiting for their response
+     */
+    boolean hasPendingRequests() {
+        return !reqtable.isEmpty();
     }
 
     void closeSession() {
         transport.close();
-        synchronized (reqtable) {
-            for (Map.Entry<Integer, FutureImpl> pair : reqtable.entrySet()) {
-                // FIXME error result
-                FutureImpl f = pair.getValue();
-                ArrayNode arrayNode = loop.getObjectMapper().createArrayNode();
-                arrayNode.add("session closed");
-                f.setResult(null, arrayNode);
-            }
-            reqtable.clear();
+        for (FutureImpl f : reqtable.removeAll()) {
+            // FIXME error result
+            ArrayNode arrayNode = loop.getObjectMapper().createArrayNode();
+            arrayNode.add("session closed");
+            f.setResult(null, arrayNode);
         }
     }
 
-    public void transportConnectFailed() { // FIXME error rseult
-        /*
-        synchronized(reqtable) {
-            for(Map.Entry<Integer,FutureImpl> pair : reqtable.entrySet()) {
-                // FIXME
-                FutureImpl f = pair.getValue();
-                f.setResult(null,null);
-            }
-            reqtable.clear();
+    /**
+     * Called by the transport when it has no connection left and could not
+     * open one. Pending requests fail with a "connect failed" error.
+     */
+    public void transportConnectFailed() {
+        for (FutureImpl f : reqtable.removeAll()) {
+            // FIXME error result
+            ArrayNode arrayNode = loop.getObjectMapper().createArrayNode();
+            arrayNode.add("connect failed");
+            f.setResult(null, arrayNode);
         }
-        */
     }
 
     public void onResponse(int msgid, JsonNode result, JsonNode error) {
-        FutureImpl f;
-        synchronized (reqtable) {
-            f = reqtable.remove(msgid);
-        }
+        FutureImpl f = reqtable.remove(msgid);
         if (f == null) {
             // FIXME log
             return;
         }
+        checkMethodId(f, error);
         f.setResult(result, error);
     }
 
-    void stepTimeout() {
-        List<FutureImpl> timedout = new ArrayList<>();
-        synchronized (reqtable) {
-            for (Iterator<Map.Entry<Integer, FutureImpl>> it = reqtable
-                    .entrySet().iterator(); it.hasNext();) {
-                Map.Entry<Integer, FutureImpl> pair = it.next();
-                FutureImpl f = pair.getValue();
-                if (f.stepTimeout()) {
-                    it.remove();
-                    timedout.add(f);
-                }
-            }
+    /**
+     * Completes the request with the result the parser is positioned at,
+     * binding it to the type the caller asked for.
+     */
+    public void onResponse(int msgid, JsonNode error, JsonParser result) throws IOException {
+        FutureImpl f = reqtable.remove(msgid);
+        if (f == null) {
+            // FIXME log
+            return;
         }
-        for (FutureImpl f : timedout) {
+        checkMethodId(f, error);
+        f.readResult(loop.getObjectMapper(), result, error);
+    }
+
+    void onTimeout(int msgid) {
+        FutureImpl f = reqtable.remove(msgid);
+        if (f != null) {
             // FIXME error result
             ArrayNode arrayNode = loop.getObjectMapper().createArrayNode();
             arrayNode.add("timedout");
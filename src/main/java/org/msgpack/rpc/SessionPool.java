@@ -22,8 +22,6 @@ import java.util.Map;
 import java.util.HashMap;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import org.msgpack.rpc.loop.EventLoop;
 import org.msgpack.rpc.address.Address;
 import org.msgpack.rpc.address.IPAddress;
@@ -34,7 +32,6 @@ public class SessionPool implements Closeable {
     private final ClientConfig config;
     private final EventLoop loop;
     private final Map<Address, Session> pool = new HashMap<Address, Session>();
-    private ScheduledFuture<?> timer;
 
     public SessionPool() {
         this(new TcpClientConfig());
@@ -51,7 +48,6 @@ public class SessionPool implements Closeable {
     public SessionPool(ClientConfig config, EventLoop loop) {
         this.config = config;
         this.loop = loop;
-        startTimer();
     }
 
     // FIXME EventLoopHolder interface?
@@ -80,7 +76,6 @@ public class SessionPool implements Closeable {
     }
 
     public void close() {
-        timer.cancel(false);
         synchronized (pool) {
             for (Map.Entry<Address, Session> pair : pool.entrySet()) {
                 Session s = pair.getValue();
@@ -89,23 +84,4 @@ public class SessionPool implements Closeable {
             pool.clear();
         }
     }
-
-    private void startTimer() {
-        Runnable command = new Runnable() {
-            public void run() {
-                stepTimeout();
-            }
-        };
-        timer = loop.getScheduledExecutor().scheduleAtFixedRate(
-                command, 1000, 1000, TimeUnit.MILLISECONDS);
-    }
-
-    void stepTimeout() {
-        synchronized (pool) {
-            for (Map.Entry<Address, Session> pair : pool.entrySet()) {
-                Session s = pair.getValue();
-                s.stepTimeout();
-            }
-        }
-    }
 }
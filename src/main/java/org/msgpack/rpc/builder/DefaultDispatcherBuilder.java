@@ -1,5 +1,8 @@
 package org.msgpack.rpc.builder;
 
+import java.lang.reflect.InvocationTargetException;
+
+import org.msgpack.rpc.annotation.RpcService;
 import org.msgpack.rpc.dispatcher.Dispatcher;
 import org.msgpack.rpc.dispatcher.MethodDispatcher;
 import org.msgpack.rpc.reflect.Reflect;
@@ -12,9 +15,52 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 public class DefaultDispatcherBuilder implements DispatcherBuilder {
 
+    private final boolean methodHandles;
+
+    public DefaultDispatcherBuilder() {
+        this(false);
+    }
+
+    /**
+     * @param methodHandles whether handler methods are called through
+     *                      method handles instead of core reflection
+     */
+    public DefaultDispatcherBuilder(boolean methodHandles) {
+        this.methodHandles = methodHandles;
+    }
+
     public Dispatcher build(Object handler, ObjectMapper mapper) {
+        Dispatcher generated = buildGenerated(handler, mapper);
+        if (generated != null) {
+            return generated;
+        }
         return new MethodDispatcher(
-                new Reflect(mapper), handler);
+                methodHandles ? Reflect.withMethodHandles(mapper) : new Reflect(mapper), handler);
     }
-}
 
+    /**
+     * Creates the dispatcher the annotation processor generated for the
+     * first {@link RpcService} interface the handler implements, if any.
+     * It dispatches only the methods of that interface.
+     */
+    private static Dispatcher buildGenerated(Object handler, ObjectMapper mapper) {
+        for (Class<?> c = handler.getClass(); c != null; c = c.getSuperclass()) {
+            for (Class<?> iface : c.getInterfaces()) {
+                if (!iface.isAnnotationPresent(RpcService.class)) {
+                    continue;
+                }
+                try {
+                    return (Dispatcher) Class.forName(iface.getName() + "$RpcDispatcher", true, iface.getClassLoader())
+                            .getConstructor(iface, ObjectMapper.class)
+                            .newInstance(handler, mapper);
+                } catch (ClassNotFoundException | NoSuchMethodException e) {
+                    // not generated, fall back to reflection
+                } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                    // FIXME exception
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -19,17 +19,89 @@ package org.msgpack.rpc.config;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public abstract class ClientConfig {
     private Map<String, Object> options = new HashMap<String, Object>();
-    protected int requestTimeout = 30; // FIXME default timeout time
+    protected long requestTimeoutMillis = 30000; // FIXME default timeout time
+    private Executor completionExecutor;
+    private boolean deadlinePropagation = false;
+    private boolean methodIdNegotiation = false;
+    private boolean callerThreadEncoding = false;
 
     public void setRequestTimeout(int sec) {
-        this.requestTimeout = sec;
+        this.requestTimeoutMillis = sec * 1000L;
     }
 
     public int getRequestTimeout() {
-        return this.requestTimeout;
+        return (int) (this.requestTimeoutMillis / 1000);
+    }
+
+    /**
+     * Request timeout in milliseconds. 0 or less means no timeout.
+     */
+    public void setRequestTimeoutMillis(long millis) {
+        this.requestTimeoutMillis = millis;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return this.requestTimeoutMillis;
+    }
+
+    /**
+     * Executor that completes the futures returned by Session.callAsync.
+     * Defaults to the worker executor of the EventLoop when null.
+     */
+    public void setCompletionExecutor(Executor completionExecutor) {
+        this.completionExecutor = completionExecutor;
+    }
+
+    public Executor getCompletionExecutor() {
+        return completionExecutor;
+    }
+
+    /**
+     * Whether each request carries the request timeout to the server, which
+     * then drops requests that expired while queued. The timeout is sent as
+     * an extra fifth element of the request, so enable this only if every
+     * server accepts it; servers of this library since 0.7.1 do.
+     */
+    public void setDeadlinePropagation(boolean deadlinePropagation) {
+        this.deadlinePropagation = deadlinePropagation;
+    }
+
+    public boolean isDeadlinePropagation() {
+        return deadlinePropagation;
+    }
+
+    /**
+     * Whether a session asks the server for its method ids when it is
+     * created and then sends the ids in place of method names. Servers
+     * that do not know the {@link org.msgpack.rpc.message.Messages#METHODS}
+     * request answer it with an error, and names are sent as before.
+     */
+    public void setMethodIdNegotiation(boolean methodIdNegotiation) {
+        this.methodIdNegotiation = methodIdNegotiation;
+    }
+
+    public boolean isMethodIdNegotiation() {
+        return methodIdNegotiation;
+    }
+
+    /**
+     * Whether requests and notifications are serialized on the thread that
+     * sends them, into a pooled buffer the transport writes as is. This
+     * moves the cost of large arguments off the I/O threads, and an
+     * argument that cannot be serialized fails the call at once instead of
+     * leaving it to time out. Arguments, including ByteBuffers, may be
+     * reused as soon as the call or notification returns.
+     */
+    public void setCallerThreadEncoding(boolean callerThreadEncoding) {
+        this.callerThreadEncoding = callerThreadEncoding;
+    }
+
+    public boolean isCallerThreadEncoding() {
+        return callerThreadEncoding;
     }
 
     public Object getOption(String key) {
@@ -0,0 +1,44 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.config;
+
+/**
+ * What a client does when its outbound queue is full.
+ */
+public enum SendOverflowPolicy {
+    /**
+     * Wait for space until the send timeout expires, then fail with a
+     * TransportError. Only threads outside the event loop's I/O group
+     * wait: a call made on an I/O thread, such as from a
+     * {@link org.msgpack.rpc.annotation.NonBlocking} handler or a callback
+     * completed by a response, fails immediately as with {@link #FAIL},
+     * since that thread may be the one that frees the space.
+     */
+    BLOCK,
+
+    /**
+     * Fail immediately with a TransportError.
+     */
+    FAIL,
+
+    /**
+     * Silently discard notifications; fail requests immediately with a
+     * TransportError.
+     */
+    DROP_NOTIFY
+}
@@ -25,6 +25,8 @@ import org.msgpack.rpc.address.Address;
 public class ServerConfig {
     private Address listenAddress;
     private Map<String, Object> options = new HashMap<String, Object>();
+    private boolean orderedExecution = false;
+    private int decodeOffloadThreshold = 0;
 
     public ServerConfig(Address listenAddress) {
         this.listenAddress = listenAddress;
@@ -34,6 +36,33 @@ public class ServerConfig {
         return listenAddress;
     }
 
+    /**
+     * Whether the requests and notifications of one connection run one at
+     * a time in arrival order. Different connections still run in parallel
+     * on the worker executor. Bulkheads are not used for such connections.
+     */
+    public boolean isOrderedExecution() {
+        return orderedExecution;
+    }
+
+    public void setOrderedExecution(boolean orderedExecution) {
+        this.orderedExecution = orderedExecution;
+    }
+
+    /**
+     * Size in bytes from which a received message is decoded on the worker
+     * executor instead of the I/O thread, so that large payloads do not
+     * delay the other connections sharing that thread. 0, the default,
+     * decodes every message on the I/O thread.
+     */
+    public int getDecodeOffloadThreshold() {
+        return decodeOffloadThreshold;
+    }
+
+    public void setDecodeOffloadThreshold(int decodeOffloadThreshold) {
+        this.decodeOffloadThreshold = decodeOffloadThreshold;
+    }
+
     public void setOption(String key, Object o) {
         options.put(key, o);
     }
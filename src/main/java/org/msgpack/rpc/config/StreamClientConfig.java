@@ -20,6 +20,11 @@ package org.msgpack.rpc.config;
 public abstract class StreamClientConfig extends ClientConfig {
     protected double connectTimeout = 30; // FIXME
     protected int reconnectionLimit = 3; // FIXME
+    protected boolean multiplexed = true;
+    protected int connectionCount = 1;
+    protected int sendQueueCapacity = 1024;
+    protected SendOverflowPolicy sendOverflowPolicy = SendOverflowPolicy.BLOCK;
+    protected double sendTimeout = 30;
 
     public double getConnectTimeout() {
         return connectTimeout;
@@ -36,4 +41,64 @@ public abstract class StreamClientConfig extends ClientConfig {
     public void setReconnectionLimit(int num) {
         reconnectionLimit = num;
     }
+
+    /**
+     * Whether requests are pipelined over a fixed set of long-lived
+     * connections (the default), rather than over a pool that opens a new
+     * connection whenever every existing one has a write in flight.
+     */
+    public boolean isMultiplexed() {
+        return multiplexed;
+    }
+
+    public void setMultiplexed(boolean multiplexed) {
+        this.multiplexed = multiplexed;
+    }
+
+    /**
+     * Number of connections a multiplexed session keeps to the server.
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public void setConnectionCount(int num) {
+        if (num < 1) {
+            throw new IllegalArgumentException("connection count must be positive: " + num);
+        }
+        connectionCount = num;
+    }
+
+    /**
+     * Maximum number of messages waiting to be written to the connection.
+     */
+    public int getSendQueueCapacity() {
+        return sendQueueCapacity;
+    }
+
+    public void setSendQueueCapacity(int num) {
+        if (num < 1) {
+            throw new IllegalArgumentException("send queue capacity must be positive: " + num);
+        }
+        sendQueueCapacity = num;
+    }
+
+    public SendOverflowPolicy getSendOverflowPolicy() {
+        return sendOverflowPolicy;
+    }
+
+    public void setSendOverflowPolicy(SendOverflowPolicy policy) {
+        sendOverflowPolicy = policy;
+    }
+
+    /**
+     * Seconds a sender waits for queue space under {@link SendOverflowPolicy#BLOCK}.
+     */
+    public double getSendTimeout() {
+        return sendTimeout;
+    }
+
+    public void setSendTimeout(double sec) {
+        sendTimeout = sec;
+    }
 }
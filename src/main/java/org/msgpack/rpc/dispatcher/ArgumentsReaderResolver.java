@@ -0,0 +1,33 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.dispatcher;
+
+import org.msgpack.rpc.reflect.ArgumentsReader;
+
+/**
+ * Implemented by dispatchers that can tell, from the method name alone,
+ * how the arguments of a request should be decoded.
+ */
+public interface ArgumentsReaderResolver {
+
+    /**
+     * @return the reader for the method, or null to decode the arguments
+     *         as a tree
+     */
+    ArgumentsReader getArgumentsReader(String method);
+}
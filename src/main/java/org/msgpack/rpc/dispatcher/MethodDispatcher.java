@@ -18,23 +18,67 @@
 package org.msgpack.rpc.dispatcher;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
 import java.lang.reflect.*;
+import org.msgpack.rpc.annotation.Bulkhead;
+import org.msgpack.rpc.annotation.NonBlocking;
+import org.msgpack.rpc.reflect.ArgumentsReader;
 import org.msgpack.rpc.reflect.Invoker;
 import org.msgpack.rpc.reflect.Reflect;
 import org.msgpack.rpc.reflect.MethodSelector;
 import org.msgpack.rpc.*;
 
-public class MethodDispatcher implements Dispatcher {
+/**
+ * Dispatches requests to the public methods of a handler through invokers
+ * built by {@link Reflect}. The method is looked up in a {@link MethodTable}
+ * built from {@code methodMap} on the first request, so subclasses must
+ * fill {@code methodMap} before the server starts.
+ */
+public class MethodDispatcher implements Dispatcher, ArgumentsReaderResolver, NonBlockingResolver,
+        MethodNamesResolver,
+        BulkheadResolver {
     protected Map<String, Invoker> methodMap;
+    protected Set<String> nonBlocking;
+    protected Map<String, String> bulkheads;
     protected Object target;
     protected Reflect reflect;
 
+    // overloads by the number of parameters, null unless enabled
+    private Map<String, Map<Integer, Invoker>> overloads;
+    private volatile MethodTable<Entry> table;
+
+    private static class Entry {
+        Invoker invoker;
+        Map<Integer, Invoker> byArity;
+        boolean nonBlocking;
+        String bulkhead;
+
+        Invoker select(Request request) {
+            if (byArity == null) {
+                return invoker;
+            }
+            Invoker ivk = byArity.get(request.getArguments().size());
+            return ivk != null ? ivk : invoker;
+        }
+    }
+
     public MethodDispatcher(Reflect reflect, Object target) {
         this(reflect, target, target.getClass());
     }
 
+    /**
+     * @param overloadByArity whether methods sharing a name are told apart
+     *                        by the number of arguments of the request
+     */
+    public MethodDispatcher(Reflect reflect, Object target, boolean overloadByArity) {
+        this(reflect, target, MethodSelector.selectRpcServerMethod(target.getClass()), overloadByArity);
+    }
+
     // FIXME List<DispatchOption>
     public MethodDispatcher(Reflect reflect, Object target, Class<?> iface) {
         // FIXME check target instanceof iface
@@ -42,22 +86,118 @@ public class MethodDispatcher implements Dispatcher {
     }
 
     public MethodDispatcher(Reflect reflect, Object target, Method[] methods) {
+        this(reflect, target, methods, false);
+    }
+
+    /**
+     * @throws IllegalArgumentException if overloads told apart by arity do
+     *         not agree on {@link NonBlocking} and {@link Bulkhead}, which
+     *         are looked up by name before the arguments are counted
+     */
+    public MethodDispatcher(Reflect reflect, Object target, Method[] methods, boolean overloadByArity) {
         // FIXME check target instanceof method.getClass()
         this.target = target;
         this.methodMap = new HashMap<>();
+        this.nonBlocking = new HashSet<>();
+        this.bulkheads = new HashMap<>();
         this.reflect = reflect;
+        if (overloadByArity) {
+            this.overloads = new HashMap<>();
+        }
         for (Method method : methods) {
             // FIXME check duplication of the names
-            methodMap.put(method.getName(), reflect.getInvoker(method));
+            Invoker invoker = reflect.getInvoker(method);
+            String name = method.getName();
+            boolean isNonBlocking = method.isAnnotationPresent(NonBlocking.class);
+            Bulkhead bulkhead = method.getAnnotation(Bulkhead.class);
+            String bulkheadName = bulkhead == null ? null : bulkhead.value();
+            if (overloads != null) {
+                Map<Integer, Invoker> byArity = overloads.get(name);
+                if (byArity == null) {
+                    byArity = new HashMap<>();
+                    overloads.put(name, byArity);
+                } else if (isNonBlocking != nonBlocking.contains(name)
+                        || !Objects.equals(bulkheadName, bulkheads.get(name))) {
+                    throw new IllegalArgumentException("Overloads of " + name
+                            + " must have the same @NonBlocking and @Bulkhead");
+                }
+                byArity.put(arity(method), invoker);
+            }
+            // the options follow the method that gets the name
+            methodMap.put(name, invoker);
+            if (isNonBlocking) {
+                nonBlocking.add(name);
+            } else {
+                nonBlocking.remove(name);
+            }
+            if (bulkheadName != null) {
+                bulkheads.put(name, bulkheadName);
+            } else {
+                bulkheads.remove(name);
+            }
+        }
+    }
+
+    private static int arity(Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        if (types.length > 0 && Callback.class.isAssignableFrom(types[0])) {
+            return types.length - 1;
         }
+        return types.length;
+    }
+
+    private MethodTable<Entry> table() {
+        MethodTable<Entry> t = table;
+        if (t == null) {
+            Map<String, Entry> entries = new HashMap<>();
+            for (Map.Entry<String, Invoker> e : methodMap.entrySet()) {
+                Entry entry = new Entry();
+                entry.invoker = e.getValue();
+                if (overloads != null) {
+                    Map<Integer, Invoker> byArity = overloads.get(e.getKey());
+                    if (byArity != null && byArity.size() > 1) {
+                        entry.byArity = byArity;
+                    }
+                }
+                entry.nonBlocking = nonBlocking.contains(e.getKey());
+                entry.bulkhead = bulkheads.get(e.getKey());
+                entries.put(e.getKey(), entry);
+            }
+            t = MethodTable.build(entries);
+            table = t;
+        }
+        return t;
+    }
+
+    public boolean isNonBlocking(String method) {
+        Entry e = table().get(method);
+        return e != null && e.nonBlocking;
+    }
+
+    public ArgumentsReader getArgumentsReader(String method) {
+        Entry e = table().get(method);
+        // overloads are selected once the arguments are counted
+        if (e != null && e.byArity == null && e.invoker instanceof ArgumentsReader) {
+            return (ArgumentsReader) e.invoker;
+        }
+        return null;
+    }
+
+    public String getBulkhead(String method) {
+        Entry e = table().get(method);
+        return e == null ? null : e.bulkhead;
+    }
+
+    public Collection<String> getMethodNames() {
+        return methodMap.keySet();
     }
 
     public void dispatch(Request request) throws Exception {
-        Invoker ivk = methodMap.get(request.getMethodName());
-        if (ivk == null) {
+        Entry e = table().get(request.getMethodName());
+        if (e == null) {
             // FIXME
             throw new IOException(".CallError.NoMethodError");
         }
-        ivk.invoke(target, request);
+        e.select(request).invoke(target, request);
     }
 }
@@ -0,0 +1,128 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.dispatcher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable map from method names to values, built once over a fixed set
+ * of names. Each name gets its own slot through a multiplicative hash of
+ * its length and three of its characters, so a lookup reads a few chars
+ * and does one equals instead of hashing the whole name. Names that
+ * cannot be told apart that way fall back to String.hashCode, and to a
+ * HashMap if no collision-free seed is found.
+ */
+final class MethodTable<V> {
+    private static final int MAX_EXTRA_BITS = 3;
+    private static final int SEEDS = 64;
+
+    private final String[] names;
+    private final Object[] values;
+    private final int seed;
+    private final int shift;
+    private final boolean fullHash;
+    private final Map<String, V> fallback;
+
+    private MethodTable(String[] names, Object[] values, int seed, int shift, boolean fullHash) {
+        this.names = names;
+        this.values = values;
+        this.seed = seed;
+        this.shift = shift;
+        this.fullHash = fullHash;
+        this.fallback = null;
+    }
+
+    private MethodTable(Map<String, V> fallback) {
+        this.names = null;
+        this.values = null;
+        this.seed = 0;
+        this.shift = 0;
+        this.fullHash = false;
+        this.fallback = new HashMap<>(fallback);
+    }
+
+    static <V> MethodTable<V> build(Map<String, V> map) {
+        MethodTable<V> table = tryBuild(map, false);
+        if (table == null) {
+            table = tryBuild(map, true);
+        }
+        return table != null ? table : new MethodTable<V>(map);
+    }
+
+    private static <V> MethodTable<V> tryBuild(Map<String, V> map, boolean fullHash) {
+        int minBits = 1;
+        while ((1 << minBits) < map.size() * 2) {
+            minBits++;
+        }
+        for (int bits = minBits; bits <= minBits + MAX_EXTRA_BITS; bits++) {
+            int size = 1 << bits;
+            int shift = 32 - bits;
+            for (int i = 0; i < SEEDS; i++) {
+                int seed = (0x9E3779B9 + i * 0x632BE5AB) | 1;
+                String[] names = new String[size];
+                Object[] values = new Object[size];
+                boolean perfect = true;
+                for (Map.Entry<String, V> e : map.entrySet()) {
+                    int slot = (key(e.getKey(), fullHash) * seed) >>> shift;
+                    if (names[slot] != null) {
+                        perfect = false;
+                        break;
+                    }
+                    names[slot] = e.getKey();
+                    values[slot] = e.getValue();
+                }
+                if (perfect) {
+                    return new MethodTable<V>(names, values, seed, shift, fullHash);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int key(String name, boolean fullHash) {
+        if (fullHash) {
+            return name.hashCode();
+        }
+        int len = name.length();
+        if (len == 0) {
+            return 0;
+        }
+        return ((len * 31 + name.charAt(0)) * 31 + name.charAt(len >>> 1)) * 31 + name.charAt(len - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(String name) {
+        if (fallback != null) {
+            return fallback.get(name);
+        }
+        int slot = (key(name, fullHash) * seed) >>> shift;
+        String candidate = names[slot];
+        if (candidate == name || (candidate != null && candidate.equals(name))) {
+            return (V) values[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Whether the names are told apart without String.hashCode.
+     */
+    boolean isPerfect() {
+        return fallback == null && !fullHash;
+    }
+}
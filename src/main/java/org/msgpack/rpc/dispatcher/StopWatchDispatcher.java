@@ -1,6 +1,10 @@
 package org.msgpack.rpc.dispatcher;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import org.msgpack.rpc.Request;
+import org.msgpack.rpc.reflect.ArgumentsReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,7 +15,8 @@ import org.slf4j.LoggerFactory;
  * User: takeshita
  * Create: 12/06/15 0:53
  */
-public class StopWatchDispatcher implements Dispatcher {
+public class StopWatchDispatcher implements Dispatcher, ArgumentsReaderResolver, NonBlockingResolver,
+        BulkheadResolver, MethodNamesResolver {
 
     Dispatcher innerDispatcher;
 
@@ -31,6 +36,32 @@ public class StopWatchDispatcher implements Dispatcher {
         this.innerDispatcher = inner;
     }
 
+    public ArgumentsReader getArgumentsReader(String method) {
+        if (innerDispatcher instanceof ArgumentsReaderResolver) {
+            return ((ArgumentsReaderResolver) innerDispatcher).getArgumentsReader(method);
+        }
+        return null;
+    }
+
+    public boolean isNonBlocking(String method) {
+        return innerDispatcher instanceof NonBlockingResolver
+                && ((NonBlockingResolver) innerDispatcher).isNonBlocking(method);
+    }
+
+    public String getBulkhead(String method) {
+        if (innerDispatcher instanceof BulkheadResolver) {
+            return ((BulkheadResolver) innerDispatcher).getBulkhead(method);
+        }
+        return null;
+    }
+
+    public Collection<String> getMethodNames() {
+        if (innerDispatcher instanceof MethodNamesResolver) {
+            return ((MethodNamesResolver) innerDispatcher).getMethodNames();
+        }
+        return Collections.emptyList();
+    }
+
     public void dispatch(Request request) throws Exception {
         if(verbose){
             logger.info(String.format( "Begin dispatching %s with args %s",request.getMethodName(),request.getArguments().toString()));
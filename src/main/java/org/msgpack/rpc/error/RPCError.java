@@ -56,6 +56,8 @@ public abstract class RPCError extends RuntimeException {
  *     |
  *     +-- ArgumentError
  *     |
+ *     +-- OverloadError
+ *     |
  *     +-- (user-defined errors)
  *
  * [RESPONSE, msgid, "RemoteError.NoMethodError", ["no such method: get"]]
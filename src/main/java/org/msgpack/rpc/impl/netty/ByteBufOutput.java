@@ -0,0 +1,45 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.impl.netty;
+
+import java.io.OutputStream;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * OutputStream over whichever ByteBuf is being encoded into, so one
+ * instance can serve every message of a channel.
+ */
+class ByteBufOutput extends OutputStream {
+
+    private ByteBuf buffer;
+
+    void setBuffer(ByteBuf buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        buffer.writeByte(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        buffer.writeBytes(b, off, len);
+    }
+}
@@ -1,22 +1,39 @@
 package org.msgpack.rpc.impl.netty;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.msgpack.rpc.transport.Connection;
 import org.msgpack.rpc.transport.RpcMessageHandler;
 
-import com.fasterxml.jackson.databind.node.ArrayNode;
-
+/**
+ * Per-channel handler that passes frames to the {@link RpcMessageHandler}
+ * and abandons the channel's in-flight requests once it is closed.
+ */
 class MessageHandler extends ChannelInboundHandlerAdapter {
 
     private final RpcMessageHandler rpcHandler;
+    private Connection connection;
 
     public MessageHandler(final RpcMessageHandler rpcHandler) {
         this.rpcHandler = rpcHandler;
     }
 
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        connection = rpcHandler.newConnection(new ChannelAdaptor(ctx.channel()));
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
-        rpcHandler.handleMessage(new ChannelAdaptor(ctx.channel()), (ArrayNode) msg);
+        // the handler closes the stream, which releases the frame
+        rpcHandler.handleMessage(connection, (ByteBuf) msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        rpcHandler.connectionClosed(connection);
+        super.channelInactive(ctx);
     }
 
     @Override
@@ -1,29 +1,26 @@
 package org.msgpack.rpc.impl.netty;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 
-import java.io.EOFException;
 import java.util.List;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Splits the stream into frames of one msgpack object each. Frames are
+ * passed on undecoded, so that they can be parsed straight into the types
+ * their handler expects.
+ */
 class MessagePackDecoder extends ByteToMessageDecoder {
 
     private static final boolean DEBUG = false;
     private final static Logger LOGGER = LoggerFactory.getLogger(MessagePackDecoder.class);
 
-    private final ObjectMapper mapper;
-
-    public MessagePackDecoder(final ObjectMapper mapper) {
-        this.mapper = mapper;
-    }
+    private final MessagePackFrameScanner scanner = new MessagePackFrameScanner();
 
     @Override
     protected void decode(final ChannelHandlerContext channelHandlerContext,
@@ -33,20 +30,16 @@ class MessagePackDecoder extends ByteToMessageDecoder {
             return;
         }
 
-        byteBuf.markReaderIndex();
-        try {
-            JsonNode node = mapper.readTree(new ByteBufInputStream(byteBuf));
-            if (DEBUG) {
-                // Create a JSON mapper.
-                ObjectMapper jsonMapper = new ObjectMapper();
-                LOGGER.info(jsonMapper.writeValueAsString(node));
-            }
-
-            if (node.isArray()) {
-                out.add(node);
-            }
-        } catch (EOFException e) {
-            byteBuf.resetReaderIndex();
+        final int length = scanner.scan(byteBuf);
+        if (length < 0) {
+            // incomplete message, wait for more bytes
+            return;
+        }
+
+        final ByteBuf frame = byteBuf.readRetainedSlice(length);
+        if (DEBUG) {
+            LOGGER.info(ByteBufUtil.hexDump(frame));
         }
+        out.add(frame);
     }
 }
@@ -1,13 +1,18 @@
 package org.msgpack.rpc.impl.netty;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.util.ReferenceCountUtil;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 
+import org.msgpack.rpc.message.CompositeFrame;
+import org.msgpack.rpc.message.EncodedMessage;
 import org.msgpack.rpc.message.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,20 +23,57 @@ class MessagePackEncoder extends MessageToByteEncoder<Message> {
     private final static Logger LOGGER = LoggerFactory.getLogger(MessagePackEncoder.class);
 
     private final ObjectMapper mapper;
+    private final ByteBufOutput output = new ByteBufOutput();
 
     public MessagePackEncoder(final ObjectMapper mapper) {
         this.mapper = mapper;
     }
 
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof EncodedMessage) {
+            // serialized by the caller; the channel releases the buffer
+            ctx.write(((EncodedMessage) msg).content(), promise);
+            return;
+        }
+        if (msg instanceof Message && CompositeFrame.isComposite((Message) msg)) {
+            // large buffers are written as they are, not copied into the
+            // frame, so the message keeps the memory they view until the
+            // write completes
+            final ByteBuf frame;
+            try {
+                frame = CompositeFrame.encode(ctx.alloc(), mapper, (Message) msg);
+            } catch (Exception e) {
+                ReferenceCountUtil.release(msg);
+                throw e;
+            }
+            ctx.write(frame, promise.unvoid()).addListener(new ChannelFutureListener() {
+                public void operationComplete(ChannelFuture future) {
+                    ReferenceCountUtil.release(msg);
+                }
+            });
+            return;
+        }
+        super.write(ctx, msg, promise);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Message message, ByteBuf out) throws Exception {
-        ArrayNode node = message.toObjectArray(mapper);
         if (DEBUG) {
             // Create a JSON mapper.
             ObjectMapper jsonMapper = new ObjectMapper();
-            LOGGER.info(jsonMapper.writeValueAsString(node));
+            LOGGER.info(jsonMapper.writeValueAsString(message.toObjectArray(mapper)));
         }
 
-        mapper.writeValue(new ByteBufOutputStream(out), node);
+        // The generator binds the thread's packer when created, so it cannot
+        // outlive this call; only the output is kept.
+        output.setBuffer(out);
+        try {
+            JsonGenerator generator = mapper.getFactory().createGenerator(output);
+            message.writeTo(generator);
+            generator.flush();
+        } finally {
+            output.setBuffer(null);
+        }
     }
 }
@@ -0,0 +1,188 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.impl.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+/**
+ * Finds the end of the next msgpack object in a cumulating buffer without
+ * decoding it. Only headers are read: string, binary and extension payloads
+ * are skipped by length, and containers are tracked as a stack of remaining
+ * element counts. The scan position and stack survive between calls, so
+ * every byte is looked at no more than once however the frame is split.
+ */
+class MessagePackFrameScanner {
+
+    private long[] remaining = new long[8];
+    private int depth;
+    // bytes scanned so far, relative to the start of the frame
+    private long scanned;
+
+    MessagePackFrameScanner() {
+        reset();
+    }
+
+    /**
+     * @return the length of the frame starting at the buffer's reader index,
+     *         or -1 if the buffer does not contain all of it yet
+     */
+    int scan(ByteBuf in) {
+        final int start = in.readerIndex();
+        final long end = in.writerIndex() - start;
+
+        while (depth > 0) {
+            if (scanned >= end) {
+                return -1;
+            }
+            final int index = start + (int) scanned;
+            final int b = in.getUnsignedByte(index);
+            final int available = (int) (end - scanned);
+
+            int header = 1;
+            long payload = 0;
+            long children = 0;
+
+            if (b <= 0x7f || b >= 0xe0) {
+                // fixint
+            } else if (b <= 0x8f) {
+                children = 2L * (b & 0x0f);
+            } else if (b <= 0x9f) {
+                children = b & 0x0f;
+            } else if (b <= 0xbf) {
+                payload = b & 0x1f;
+            } else {
+                switch (b) {
+                case 0xc0: case 0xc2: case 0xc3:
+                    break;
+                case 0xc4: case 0xd9:
+                    header = 2;
+                    break;
+                case 0xc5: case 0xda: case 0xdc: case 0xde:
+                    header = 3;
+                    break;
+                case 0xc6: case 0xdb: case 0xdd: case 0xdf:
+                    header = 5;
+                    break;
+                case 0xc7:
+                    header = 3;
+                    break;
+                case 0xc8:
+                    header = 4;
+                    break;
+                case 0xc9:
+                    header = 6;
+                    break;
+                case 0xcc: case 0xd0:
+                    header = 2;
+                    break;
+                case 0xcd: case 0xd1:
+                    header = 3;
+                    break;
+                case 0xca: case 0xce: case 0xd2:
+                    header = 5;
+                    break;
+                case 0xcb: case 0xcf: case 0xd3:
+                    header = 9;
+                    break;
+                case 0xd4:
+                    header = 3;
+                    break;
+                case 0xd5:
+                    header = 4;
+                    break;
+                case 0xd6:
+                    header = 6;
+                    break;
+                case 0xd7:
+                    header = 10;
+                    break;
+                case 0xd8:
+                    header = 18;
+                    break;
+                default:
+                    throw new CorruptedFrameException("invalid msgpack type byte: 0x" + Integer.toHexString(b));
+                }
+                if (header > available) {
+                    return -1;
+                }
+                switch (b) {
+                case 0xc4: case 0xd9: case 0xc7:
+                    payload = in.getUnsignedByte(index + 1);
+                    break;
+                case 0xc5: case 0xda: case 0xc8:
+                    payload = in.getUnsignedShort(index + 1);
+                    break;
+                case 0xc6: case 0xdb: case 0xc9:
+                    payload = in.getUnsignedInt(index + 1);
+                    break;
+                case 0xdc:
+                    children = in.getUnsignedShort(index + 1);
+                    break;
+                case 0xdd:
+                    children = in.getUnsignedInt(index + 1);
+                    break;
+                case 0xde:
+                    children = 2L * in.getUnsignedShort(index + 1);
+                    break;
+                case 0xdf:
+                    children = 2L * in.getUnsignedInt(index + 1);
+                    break;
+                default:
+                    break;
+                }
+            }
+
+            scanned += header + payload;
+            if (scanned > Integer.MAX_VALUE) {
+                throw new TooLongFrameException("msgpack frame exceeds " + Integer.MAX_VALUE + " bytes");
+            }
+            remaining[depth - 1]--;
+            if (children > 0) {
+                push(children);
+            }
+            while (depth > 0 && remaining[depth - 1] == 0) {
+                depth--;
+            }
+        }
+
+        if (scanned > end) {
+            // the last payload has not fully arrived
+            return -1;
+        }
+        final int length = (int) scanned;
+        reset();
+        return length;
+    }
+
+    private void push(long count) {
+        if (depth == remaining.length) {
+            long[] grown = new long[depth * 2];
+            System.arraycopy(remaining, 0, grown, 0, depth);
+            remaining = grown;
+        }
+        remaining[depth++] = count;
+    }
+
+    private void reset() {
+        remaining[0] = 1;
+        depth = 1;
+        scanned = 0;
+    }
+}
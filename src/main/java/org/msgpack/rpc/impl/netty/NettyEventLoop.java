@@ -17,8 +17,14 @@
 //
 package org.msgpack.rpc.impl.netty;
 
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.msgpack.rpc.Session;
 import org.msgpack.rpc.Server;
 import org.msgpack.rpc.loop.EventLoop;
@@ -30,24 +36,48 @@ import org.msgpack.rpc.config.TcpClientConfig;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class NettyEventLoop extends EventLoop {
+
+    private EventLoopGroup ioGroup;
+
     public NettyEventLoop(ExecutorService workerExecutor,
             ExecutorService ioExecutor,
             ScheduledExecutorService scheduledExecutor, ObjectMapper mapper) {
         super(workerExecutor, ioExecutor, scheduledExecutor, mapper);
     }
 
+    synchronized EventLoopGroup getIoGroup() {
+        if (ioGroup == null) {
+            ioGroup = new NioEventLoopGroup(getIoThreadCount(), getIoExecutor());
+        }
+        return ioGroup;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (ioGroup != null) {
+                ioGroup.shutdownGracefully(0, 15, TimeUnit.SECONDS);
+            }
+        }
+        super.shutdown();
+    }
+
     protected ClientTransport openTcpTransport(TcpClientConfig config,
             Session session) {
+        if (config.isMultiplexed()) {
+            return new NettyTcpMultiplexedClientTransport(config, session, this);
+        }
         return new NettyTcpClientTransport(config, session, this);
     }
 
     protected ServerTransport listenTcpTransport(TcpServerConfig config,
-            Server server) {
+            Server server) throws IOException {
         try {
             return new NettyTcpServerTransport(config, server, this);
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while binding "
+                    + config.getListenAddress().getSocketAddress());
         }
     }
 }
@@ -22,7 +22,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 
@@ -34,10 +33,13 @@ import org.msgpack.rpc.transport.RpcMessageHandler;
 
 class NettyTcpClientTransport implements ClientTransport {
 
+    private static final int MAX_CONNECTIONS = 1024;
+
     private final Session _session;
     private final Bootstrap _bootstrap;
-    private final AtomicInteger _availables = new AtomicInteger(1024);
+    private final AtomicInteger _availables = new AtomicInteger(MAX_CONNECTIONS);
     private final ConcurrentLinkedQueue<Channel> _writables;
+    private final SendQueue _queue;
 
     NettyTcpClientTransport(final TcpClientConfig config,
                             final Session session,
@@ -46,16 +48,16 @@ class NettyTcpClientTransport implements ClientTransport {
         final RpcMessageHandler handler = new RpcMessageHandler(session);
 
         _bootstrap = new Bootstrap()
-            .group(new NioEventLoopGroup(/*2*/))
+            .group(loop.getIoGroup())
             .channel(NioSocketChannel.class)
-            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.round((float) config.getConnectTimeout()))
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.round(config.getConnectTimeout() * 1000))
             .option(ChannelOption.TCP_NODELAY, !Boolean.FALSE.equals(config.getOption(ChannelOption.TCP_NODELAY.name())))
             .option(ChannelOption.SO_KEEPALIVE, !Boolean.FALSE.equals(config.getOption(ChannelOption.SO_KEEPALIVE.name())))
             .handler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 public void initChannel(SocketChannel ch) throws Exception {
                     ch.pipeline().addLast(
-                            new MessagePackDecoder(loop.getObjectMapper()),
+                            new MessagePackDecoder(),
                             new MessageHandler(handler),
                             new MessagePackEncoder(loop.getObjectMapper()));
                 }
@@ -63,6 +65,7 @@ class NettyTcpClientTransport implements ClientTransport {
 
         _session = session;
         _writables = new ConcurrentLinkedQueue<>();
+        _queue = new SendQueue(config, loop.getIoGroup());
     }
 
     protected ChannelFuture startConnection() {
@@ -70,41 +73,73 @@ class NettyTcpClientTransport implements ClientTransport {
     }
 
     public void sendMessage(final Message msg) {
-        if (_writables.isEmpty() && _availables.getAndDecrement() > 0) {
+        if (_queue.offer(msg)) {
+            kick();
+        }
+    }
+
+    public void close(){
+        while(!_writables.isEmpty()) {
+               _writables.poll().close();
+        }
+        _queue.clear();
+    }
+
+    /**
+     * Hands queued messages to an idle channel, opening a new one if none is
+     * idle and the connection budget allows. Otherwise a channel picks the
+     * messages up when its current write completes.
+     */
+    private void kick() {
+        if (_queue.isEmpty()) {
+            return;
+        }
+        final Channel writable = _writables.poll();
+        if (writable != null) {
+            sendNext(writable);
+        } else if (_availables.getAndDecrement() > 0) {
             startConnection().addListener(new ChannelFutureListener() {
 
                 public void operationComplete(ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        if (_availables.incrementAndGet() == MAX_CONNECTIONS) {
+                            // no open channel will pick the queued messages up
+                            _queue.clear();
+                            _session.transportConnectFailed();
+                        }
+                        return;
+                    }
                     final Channel connected = future.channel();
-                    sendMessageChannel(connected, msg);
                     connected.closeFuture().addListener(new ChannelFutureListener() {
                         public void operationComplete(ChannelFuture channelFuture) throws Exception {
                             _availables.incrementAndGet();
                         }
                     });
+                    sendNext(connected);
                 }
             });
         } else {
-            final Channel writable = _writables.poll();
-            if (writable != null) {
-                sendMessageChannel(writable, msg);
-            } else {
-                Thread.yield();
-                sendMessage(msg);
-            }
+            _availables.incrementAndGet();
         }
     }
 
-    public void close(){
-        while(!_writables.isEmpty()) {
-               _writables.poll().close();
+    private void sendNext(Channel c) {
+        final Message msg = _queue.poll();
+        if (msg == null) {
+            _writables.offer(c);
+            // a message queued while this channel was busy may have found no
+            // idle channel
+            kick();
+            return;
         }
-    }
-
-    protected ChannelFuture sendMessageChannel(Channel c, Object msg) {
-        return c.writeAndFlush(msg).addListener(new ChannelFutureListener() {
+        c.writeAndFlush(msg).addListener(new ChannelFutureListener() {
 
             public void operationComplete(ChannelFuture future) throws Exception {
-                _writables.offer(future.channel());
+                if (future.channel().isActive()) {
+                    sendNext(future.channel());
+                } else {
+                    kick();
+                }
             }
         });
     }
@@ -0,0 +1,241 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.impl.netty;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import org.msgpack.rpc.message.EncodedMessage;
+import org.msgpack.rpc.message.Message;
+import org.msgpack.rpc.message.Messages;
+import org.msgpack.rpc.message.NotifyMessage;
+import org.msgpack.rpc.Session;
+import org.msgpack.rpc.config.TcpClientConfig;
+import org.msgpack.rpc.error.TransportError;
+import org.msgpack.rpc.transport.ClientTransport;
+import org.msgpack.rpc.transport.RpcMessageHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client transport that pipelines every message over a fixed number of
+ * long-lived connections. Responses are matched to requests by msgid in
+ * {@link Session#onResponse}, so a request never waits for a connection.
+ * Outgoing messages wait in a bounded {@link SendQueue} that connections
+ * drain while their channel is writable.
+ */
+class NettyTcpMultiplexedClientTransport implements ClientTransport {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(NettyTcpMultiplexedClientTransport.class);
+
+    private final Session _session;
+    private final Bootstrap _bootstrap;
+    private final SendQueue _queue;
+    private final AtomicReferenceArray<Connection> _connections;
+    private final AtomicInteger _next = new AtomicInteger();
+    private volatile boolean _closed = false;
+
+    NettyTcpMultiplexedClientTransport(final TcpClientConfig config,
+                                       final Session session,
+                                       final NettyEventLoop loop) {
+        // TODO check session.getAddress() instanceof IPAddress
+        final RpcMessageHandler handler = new RpcMessageHandler(session);
+
+        _bootstrap = new Bootstrap()
+            .group(loop.getIoGroup())
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.round(config.getConnectTimeout() * 1000))
+            .option(ChannelOption.TCP_NODELAY, !Boolean.FALSE.equals(config.getOption(ChannelOption.TCP_NODELAY.name())))
+            .option(ChannelOption.SO_KEEPALIVE, !Boolean.FALSE.equals(config.getOption(ChannelOption.SO_KEEPALIVE.name())))
+            .handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                public void initChannel(SocketChannel ch) throws Exception {
+                    ch.pipeline().addLast(
+                            new MessagePackDecoder(),
+                            new MessageHandler(handler),
+                            new MessagePackEncoder(loop.getObjectMapper()),
+                            new WritabilityHandler());
+                }
+            });
+
+        _session = session;
+        _queue = new SendQueue(config, loop.getIoGroup());
+        _connections = new AtomicReferenceArray<>(config.getConnectionCount());
+    }
+
+    public void sendMessage(final Message msg) {
+        if (_connections.length() > 1 && isCancel(msg)) {
+            // the server only knows the requests of the connection that
+            // carried them, so the cancel goes to every connection
+            broadcast(msg);
+            return;
+        }
+        if (!_queue.offer(msg)) {
+            LOGGER.debug("send queue full, dropped notification");
+            return;
+        }
+        final int index = (_next.getAndIncrement() & Integer.MAX_VALUE) % _connections.length();
+        getConnection(index).scheduleDrain();
+    }
+
+    public void close() {
+        _closed = true;
+        synchronized (_connections) {
+            for (int i = 0; i < _connections.length(); i++) {
+                final Connection connection = _connections.getAndSet(i, null);
+                if (connection != null) {
+                    connection.future.channel().close();
+                }
+            }
+        }
+        _queue.clear();
+    }
+
+    private static boolean isCancel(Message msg) {
+        msg = EncodedMessage.unwrap(msg);
+        return msg instanceof NotifyMessage && Messages.CANCEL.equals(((NotifyMessage) msg).getMethod());
+    }
+
+    private void broadcast(Message msg) {
+        for (int i = 0; i < _connections.length(); i++) {
+            final Connection connection = _connections.get(i);
+            if (connection != null && connection.future.isSuccess()) {
+                // each channel consumes its own view of an encoded buffer
+                connection.future.channel().writeAndFlush(msg instanceof EncodedMessage
+                        ? ((EncodedMessage) msg).retainedDuplicate() : msg);
+            }
+        }
+        ReferenceCountUtil.release(msg);
+    }
+
+    /**
+     * Returns the connection in the given slot, reconnecting if the previous
+     * attempt failed or the connection has since been closed.
+     */
+    private Connection getConnection(int index) {
+        Connection connection = _connections.get(index);
+        if (connection != null && connection.isUsable()) {
+            return connection;
+        }
+        synchronized (_connections) {
+            connection = _connections.get(index);
+            if (connection != null && connection.isUsable()) {
+                return connection;
+            }
+            if (_closed) {
+                _queue.clear();
+                throw new TransportError("transport closed");
+            }
+            connection = new Connection(_bootstrap.connect(_session.getAddress().getSocketAddress()));
+            _connections.set(index, connection);
+            return connection;
+        }
+    }
+
+    /**
+     * Drops the queued messages and fails the pending requests once no
+     * connection is left to carry them. The next message reconnects.
+     */
+    private void connectFailed() {
+        synchronized (_connections) {
+            for (int i = 0; i < _connections.length(); i++) {
+                final Connection connection = _connections.get(i);
+                if (connection != null && connection.isUsable()) {
+                    return;
+                }
+            }
+            _queue.clear();
+        }
+        _session.transportConnectFailed();
+    }
+
+    /**
+     * Writes queued messages while the channel accepts them, then flushes
+     * once. Must run on the channel's event loop.
+     */
+    private void drain(Channel channel) {
+        boolean written = false;
+        while (channel.isActive() && channel.isWritable()) {
+            final Message msg = _queue.poll();
+            if (msg == null) {
+                break;
+            }
+            channel.write(msg);
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    private final class Connection implements Runnable, ChannelFutureListener {
+        final ChannelFuture future;
+        private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+        Connection(ChannelFuture future) {
+            this.future = future;
+            future.addListener(this);
+        }
+
+        boolean isUsable() {
+            return !future.isDone() || future.channel().isActive();
+        }
+
+        void scheduleDrain() {
+            // A connection still in progress drains once it becomes active.
+            if (future.isSuccess() && drainScheduled.compareAndSet(false, true)) {
+                future.channel().eventLoop().execute(this);
+            }
+        }
+
+        public void run() {
+            drainScheduled.set(false);
+            drain(future.channel());
+        }
+
+        public void operationComplete(ChannelFuture future) throws Exception {
+            if (!future.isSuccess()) {
+                LOGGER.warn("Failed to connect to " + _session.getAddress().getSocketAddress(), future.cause());
+                connectFailed();
+            }
+        }
+    }
+
+    private final class WritabilityHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            drain(ctx.channel());
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (ctx.channel().isWritable()) {
+                drain(ctx.channel());
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+    }
+}
@@ -19,9 +19,11 @@ package org.msgpack.rpc.impl.netty;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import org.msgpack.rpc.address.Address;
 import org.msgpack.rpc.address.IPAddress;
 import org.msgpack.rpc.Server;
@@ -29,15 +31,18 @@ import org.msgpack.rpc.config.TcpServerConfig;
 import org.msgpack.rpc.transport.RpcMessageHandler;
 import org.msgpack.rpc.transport.ServerTransport;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 
 class NettyTcpServerTransport implements ServerTransport {
 
     private final ChannelFuture channelFuture;
+    // accepted connections, closed with the listening channel
+    private final ChannelGroup children = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
     NettyTcpServerTransport(final TcpServerConfig config,
                             final Server server,
-                            final NettyEventLoop loop) throws InterruptedException {
+                            final NettyEventLoop loop) throws IOException, InterruptedException {
 
         if (server == null) {
             throw new IllegalArgumentException("Server must not be null");
@@ -47,27 +52,41 @@ class NettyTcpServerTransport implements ServerTransport {
         final RpcMessageHandler handler = new RpcMessageHandler(server);
 
         handler.useThread(true);
+        handler.setOrdered(config.isOrderedExecution());
+        handler.setDecodeOffloadThreshold(config.getDecodeOffloadThreshold());
 
-        final EventLoopGroup bossGroup = new NioEventLoopGroup(/*1*/); // (1)
-        final EventLoopGroup workerGroup = new NioEventLoopGroup(/*4*/);
+        // The acceptor shares its thread with connection I/O, so allow a longer
+        // queue of pending connections than a dedicated boss thread would need.
+        final Object backlogOption = config.getOption(ChannelOption.SO_BACKLOG.name());
+        final int backlog = backlogOption instanceof Number ? ((Number) backlogOption).intValue() : 1024;
+
+        final EventLoopGroup group = loop.getIoGroup(); // (1)
         final ServerBootstrap b = new ServerBootstrap()
-                .group(bossGroup, workerGroup)
+                .group(group)
                 .channel(NioServerSocketChannel.class) // (3)
                 .childHandler(new ChannelInitializer<SocketChannel>() { // (4)
                     @Override
                     public void initChannel(SocketChannel ch) throws Exception {
+                        children.add(ch);
                         ch.pipeline().addLast(
-                                new MessagePackDecoder(loop.getObjectMapper()),
+                                new MessagePackDecoder(),
                                 new MessageHandler(handler),
                                 new MessagePackEncoder(loop.getObjectMapper()));
                     }
                 })
-                .option(ChannelOption.SO_BACKLOG, 128)          // (5)
+                .option(ChannelOption.SO_BACKLOG, backlog)      // (5)
                 .childOption(ChannelOption.TCP_NODELAY, !Boolean.FALSE.equals(config.getOption(ChannelOption.TCP_NODELAY.name())))
                 .childOption(ChannelOption.SO_KEEPALIVE, !Boolean.FALSE.equals(config.getOption(ChannelOption.SO_KEEPALIVE.name())));
 
         // Bind and start to accept incoming connections.
-        channelFuture = b.bind(address.getSocketAddress()).sync(); // (7)
+        channelFuture = b.bind(address.getSocketAddress()).await(); // (7)
+        if (!channelFuture.isSuccess()) {
+            final Throwable cause = channelFuture.cause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to listen on " + address.getSocketAddress(), cause);
+        }
     }
 
     public Address getLocalAddress() {
@@ -75,6 +94,11 @@ class NettyTcpServerTransport implements ServerTransport {
     }
 
     public void close() {
-        channelFuture.channel().close();
+        // The I/O group is shared and outlives this transport, so its
+        // channels are not closed by a shutdown of the group: close the
+        // listening socket and the accepted connections, and wait for both.
+        final ChannelFuture parent = channelFuture.channel().close();
+        children.close().syncUninterruptibly();
+        parent.syncUninterruptibly();
     }
 }
@@ -0,0 +1,135 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.impl.netty;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import org.msgpack.rpc.config.SendOverflowPolicy;
+import org.msgpack.rpc.config.StreamClientConfig;
+import org.msgpack.rpc.error.TransportError;
+import org.msgpack.rpc.message.EncodedMessage;
+import org.msgpack.rpc.message.Message;
+import org.msgpack.rpc.message.NotifyMessage;
+
+/**
+ * Bounded queue of messages waiting for a connection to accept them.
+ * Space is reserved when a message is offered and given back when the
+ * message is handed to a channel.
+ */
+class SendQueue {
+
+    private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore space;
+    private final SendOverflowPolicy policy;
+    private final long timeoutMillis;
+    private final EventExecutorGroup ioGroup;
+
+    /**
+     * @param ioGroup the I/O threads that drain the queue, on which a full
+     *                queue fails at once instead of blocking
+     */
+    SendQueue(StreamClientConfig config, EventExecutorGroup ioGroup) {
+        this.ioGroup = ioGroup;
+        space = new Semaphore(config.getSendQueueCapacity());
+        policy = config.getSendOverflowPolicy();
+        timeoutMillis = Math.round(config.getSendTimeout() * 1000);
+    }
+
+    /**
+     * Adds a message, applying the overflow policy if the queue is full.
+     * A message that is not queued is released.
+     * @return false if the message was dropped
+     * @throws TransportError if the message could not be queued
+     */
+    boolean offer(Message msg) {
+        if (!space.tryAcquire()) {
+            switch (policy) {
+            case BLOCK:
+                if (inEventLoop()) {
+                    // waiting could hold up the very thread that frees space
+                    ReferenceCountUtil.release(msg);
+                    throw new TransportError("send queue full");
+                }
+                if (!acquire()) {
+                    ReferenceCountUtil.release(msg);
+                    throw new TransportError("send queue full, timed out after " + timeoutMillis + "ms");
+                }
+                break;
+            case DROP_NOTIFY:
+                final boolean notify = EncodedMessage.unwrap(msg) instanceof NotifyMessage;
+                ReferenceCountUtil.release(msg);
+                if (notify) {
+                    return false;
+                }
+                throw new TransportError("send queue full");
+            default:
+                ReferenceCountUtil.release(msg);
+                throw new TransportError("send queue full");
+            }
+        }
+        queue.add(msg);
+        return true;
+    }
+
+    Message poll() {
+        final Message msg = queue.poll();
+        if (msg != null) {
+            space.release();
+        }
+        return msg;
+    }
+
+    /**
+     * Drops every queued message, releasing encoded ones.
+     */
+    void clear() {
+        Message msg;
+        while ((msg = poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    private boolean inEventLoop() {
+        for (EventExecutor executor : ioGroup) {
+            if (executor.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean acquire() {
+        try {
+            return space.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -18,11 +18,19 @@
 package org.msgpack.rpc.loop;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
 import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.msgpack.rpc.Session;
 import org.msgpack.rpc.Server;
@@ -33,6 +41,7 @@ import org.msgpack.rpc.config.ServerConfig;
 import org.msgpack.rpc.config.TcpClientConfig;
 import org.msgpack.rpc.config.TcpServerConfig;
 import org.msgpack.rpc.impl.netty.NettyEventLoopFactory;
+import org.msgpack.rpc.reflect.Reflect;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -66,6 +75,30 @@ public abstract class EventLoop {
         return start(Executors.newCachedThreadPool(), new ObjectMapper(new MessagePackFactory()));
     }
 
+    /**
+     * Starts a loop whose worker pool is bounded, see {@link #newBoundedExecutor}.
+     */
+    static public EventLoop startBounded(int workerThreads, int workerQueueCapacity) {
+        return start(newBoundedExecutor("msgpack-rpc-worker", workerThreads, workerQueueCapacity),
+                new ObjectMapper(new MessagePackFactory()));
+    }
+
+    /**
+     * Creates an executor with at most the given number of threads and of
+     * queued tasks. Further tasks are rejected; the server then answers the
+     * request with an error at once instead of letting it wait.
+     * @param queueCapacity the number of queued tasks, 0 for no queue
+     */
+    static public ThreadPoolExecutor newBoundedExecutor(String name, int threads, int queueCapacity) {
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new ArrayBlockingQueue<Runnable>(queueCapacity)
+                : new SynchronousQueue<Runnable>();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60, TimeUnit.SECONDS, queue, new DefaultThreadFactory(name, true));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     static public EventLoop start(ObjectMapper mapper) {
         return start(Executors.newCachedThreadPool(),
                 Executors.newCachedThreadPool(),
@@ -92,6 +125,9 @@ public abstract class EventLoop {
     private ExecutorService ioExecutor;
     private ScheduledExecutorService scheduledExecutor;
     private ObjectMapper mapper;
+    private int ioThreadCount = 0;
+    private Timer timer;
+    private volatile Reflect reflect;
 
     public ObjectMapper getObjectMapper() {
         return mapper;
@@ -99,6 +135,25 @@ public abstract class EventLoop {
 
     public void setObjectMapper(ObjectMapper mapper) {
         this.mapper = mapper;
+        this.reflect = null;
+    }
+
+    /**
+     * Proxy and invoker cache for the ObjectMapper of this loop, shared by
+     * all of its sessions so that each interface is reflected on once.
+     */
+    public Reflect getReflect() {
+        Reflect r = reflect;
+        if (r == null) {
+            synchronized (this) {
+                r = reflect;
+                if (r == null) {
+                    r = new Reflect(mapper);
+                    reflect = r;
+                }
+            }
+        }
+        return r;
     }
 
     public EventLoop(ExecutorService workerExecutor, ExecutorService ioExecutor,
@@ -121,7 +176,42 @@ public abstract class EventLoop {
         return scheduledExecutor;
     }
 
+    /**
+     * Number of I/O threads shared by all transports of this loop.
+     * @return the thread count, or 0 to use the transport's default
+     */
+    public int getIoThreadCount() {
+        return ioThreadCount;
+    }
+
+    /**
+     * Sets the number of I/O threads. Takes effect only if called before the
+     * first transport is opened. The I/O executor must be able to run that
+     * many long-running tasks at once.
+     */
+    public void setIoThreadCount(int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    /**
+     * Hashed-wheel timer that expires the requests of every session of this
+     * loop. Ticks every 10 milliseconds; scheduling and cancelling a
+     * timeout are O(1).
+     */
+    public synchronized Timer getTimer() {
+        if (timer == null) {
+            timer = new HashedWheelTimer(new DefaultThreadFactory("msgpack-rpc-timer", true),
+                    10, TimeUnit.MILLISECONDS);
+        }
+        return timer;
+    }
+
     public void shutdown() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.stop();
+            }
+        }
         scheduledExecutor.shutdown();
         ioExecutor.shutdown();
         workerExecutor.shutdown();
@@ -159,5 +249,5 @@ public abstract class EventLoop {
             Session session);
 
     protected abstract ServerTransport listenTcpTransport(
-            TcpServerConfig config, Server server);
+            TcpServerConfig config, Server server) throws IOException;
 }
@@ -0,0 +1,63 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.message;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+final class Arguments {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private Arguments() {
+    }
+
+    static Object[] fromNode(ArrayNode args) {
+        if (args == null) {
+            return EMPTY;
+        }
+        Object[] array = new Object[args.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = args.get(i);
+        }
+        return array;
+    }
+
+    static void write(JsonGenerator generator, Object[] args) throws IOException {
+        generator.writeStartArray();
+        if (args != null) {
+            for (Object arg : args) {
+                generator.writeObject(arg);
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    static ArrayNode toNode(ObjectMapper mapper, Object[] args) {
+        ArrayNode argArray = mapper.createArrayNode();
+        if (args != null) {
+            for (Object arg : args) {
+                argArray.addPOJO(arg);
+            }
+        }
+        return argArray;
+    }
+}
@@ -0,0 +1,205 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes messages whose arguments or result are {@link ByteBuffer}s as a
+ * composite buffer: large bin values become components of their own
+ * instead of being copied into the frame. Small ones are copied, which
+ * also covers the direct and read-only buffers the msgpack generator
+ * cannot write.
+ * <p>
+ * A result is handed over by the method that returned it, so any large
+ * result buffer is shared. The caller of a request or notification may
+ * still own its buffers, so only read-only arguments are shared; the
+ * caller marks a buffer it will not change until the message is written
+ * with {@link ByteBuffer#asReadOnlyBuffer()}.
+ */
+public final class CompositeFrame {
+
+    /**
+     * Smaller buffers are cheaper to copy than to add as a component.
+     */
+    static final int MIN_COMPONENT_SIZE = 1024;
+
+    private CompositeFrame() {
+    }
+
+    /**
+     * @return true if the message has a ByteBuffer argument or result
+     */
+    public static boolean isComposite(Message message) {
+        Object[] elements = elements(message);
+        return elements != null && hasBuffer(elements);
+    }
+
+    /**
+     * Encodes the message. The shared buffers must not be modified until
+     * the returned frame has been written.
+     */
+    public static ByteBuf encode(ByteBufAllocator alloc, ObjectMapper mapper, Message message) throws IOException {
+        return encode(alloc, mapper, message, false);
+    }
+
+    /**
+     * @param copy whether every buffer is copied, so that none of them is
+     *             used once this returns
+     */
+    public static ByteBuf encode(ByteBufAllocator alloc, ObjectMapper mapper, Message message, boolean copy)
+            throws IOException {
+        final Sharing sharing = copy ? Sharing.NONE
+                : message instanceof ResponseMessage ? Sharing.ALL : Sharing.READ_ONLY;
+        Object[] elements = elements(message);
+        CompositeByteBuf frame = alloc.compositeBuffer(2 * countComponents(elements, sharing) + 1);
+        // the buffer being written, not yet owned by the frame
+        ByteBuf[] current = { alloc.buffer() };
+        try {
+            writeArray(alloc, mapper, frame, current, elements, sharing);
+            frame.addComponent(true, current[0]);
+            return frame;
+        } catch (IOException | RuntimeException e) {
+            if (current[0] != null) {
+                current[0].release();
+            }
+            frame.release();
+            throw e;
+        }
+    }
+
+    private static Object[] elements(Message message) {
+        if (message instanceof RequestMessage) {
+            return ((RequestMessage) message).elements();
+        } else if (message instanceof ResponseMessage) {
+            return ((ResponseMessage) message).elements();
+        } else if (message instanceof NotifyMessage) {
+            return ((NotifyMessage) message).elements();
+        }
+        return null;
+    }
+
+    private static boolean hasBuffer(Object[] elements) {
+        for (Object e : elements) {
+            if (e instanceof ByteBuffer || (e instanceof Object[] && hasBuffer((Object[]) e))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int countComponents(Object[] elements, Sharing sharing) {
+        int count = 0;
+        for (Object e : elements) {
+            if (e instanceof Object[]) {
+                count += countComponents((Object[]) e, sharing);
+            } else if (e instanceof ByteBuffer && sharing.shares((ByteBuffer) e)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeArray(ByteBufAllocator alloc, ObjectMapper mapper, CompositeByteBuf frame,
+                                   ByteBuf[] current, Object[] elements, Sharing sharing) throws IOException {
+        writeArrayHeader(current[0], elements.length);
+        for (Object e : elements) {
+            if (e instanceof Object[]) {
+                writeArray(alloc, mapper, frame, current, (Object[]) e, sharing);
+            } else if (e instanceof ByteBuffer) {
+                ByteBuffer buffer = ((ByteBuffer) e).duplicate();
+                writeBinHeader(current[0], buffer.remaining());
+                if (!sharing.shares(buffer)) {
+                    current[0].writeBytes(buffer);
+                } else {
+                    frame.addComponent(true, current[0]);
+                    current[0] = null;
+                    frame.addComponent(true, Unpooled.wrappedBuffer(buffer));
+                    current[0] = alloc.buffer();
+                }
+            } else {
+                writeValue(alloc, mapper, current[0], e);
+            }
+        }
+    }
+
+    /**
+     * Writes a value through the mapper. The msgpack generator only writes
+     * arrays and maps at the top level, so the value is written as a
+     * one-element array whose header is then dropped.
+     */
+    private static void writeValue(ByteBufAllocator alloc, ObjectMapper mapper, ByteBuf out, Object value)
+            throws IOException {
+        ByteBuf wrapped = alloc.buffer();
+        try {
+            mapper.writeValue(new ByteBufOutputStream(wrapped), new Object[] { value });
+            out.writeBytes(wrapped, wrapped.readerIndex() + 1, wrapped.readableBytes() - 1);
+        } finally {
+            wrapped.release();
+        }
+    }
+
+    /**
+     * Which buffers of at least {@link #MIN_COMPONENT_SIZE} bytes become
+     * components of the frame.
+     */
+    private enum Sharing {
+        NONE, READ_ONLY, ALL;
+
+        boolean shares(ByteBuffer buffer) {
+            if (buffer.remaining() < MIN_COMPONENT_SIZE) {
+                return false;
+            }
+            return this == ALL || (this == READ_ONLY && buffer.isReadOnly());
+        }
+    }
+
+    private static void writeArrayHeader(ByteBuf out, int length) {
+        if (length < 16) {
+            out.writeByte(0x90 | length);
+        } else if (length < 0x10000) {
+            out.writeByte(0xdc);
+            out.writeShort(length);
+        } else {
+            out.writeByte(0xdd);
+            out.writeInt(length);
+        }
+    }
+
+    private static void writeBinHeader(ByteBuf out, int length) {
+        if (length < 0x100) {
+            out.writeByte(0xc4);
+            out.writeByte(length);
+        } else if (length < 0x10000) {
+            out.writeByte(0xc5);
+            out.writeShort(length);
+        } else {
+            out.writeByte(0xc6);
+            out.writeInt(length);
+        }
+    }
+}
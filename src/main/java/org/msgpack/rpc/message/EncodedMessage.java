@@ -0,0 +1,102 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.DefaultByteBufHolder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * A message already serialized into a pooled buffer, so that the transport
+ * writes its bytes as they are. The buffer is released once it has been
+ * written, or when the transport drops the message.
+ */
+public class EncodedMessage extends DefaultByteBufHolder implements Message {
+
+    private final Message message;
+
+    private EncodedMessage(Message message, ByteBuf content) {
+        super(content);
+        this.message = message;
+    }
+
+    /**
+     * Serializes the message on the calling thread. ByteBuffer values are
+     * copied too, so the caller may reuse them once this returns.
+     * @throws IOException if the message could not be serialized; nothing
+     *                     is left allocated then
+     */
+    public static EncodedMessage encode(ObjectMapper mapper, Message message) throws IOException {
+        if (CompositeFrame.isComposite(message)) {
+            return new EncodedMessage(message,
+                    CompositeFrame.encode(ByteBufAllocator.DEFAULT, mapper, message, true));
+        }
+        ByteBuf buffer = ByteBufAllocator.DEFAULT.buffer();
+        try {
+            JsonGenerator generator = mapper.getFactory().createGenerator((OutputStream) new ByteBufOutputStream(buffer));
+            message.writeTo(generator);
+            generator.flush();
+        } catch (IOException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+        return new EncodedMessage(message, buffer);
+    }
+
+    /**
+     * @return the message an encoded message was made from, or the message
+     *         itself
+     */
+    public static Message unwrap(Message message) {
+        return message instanceof EncodedMessage ? ((EncodedMessage) message).message : message;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    @Override
+    public EncodedMessage replace(ByteBuf content) {
+        return new EncodedMessage(message, content);
+    }
+
+    @Override
+    public EncodedMessage retainedDuplicate() {
+        return (EncodedMessage) super.retainedDuplicate();
+    }
+
+    /**
+     * Serializes the original message again, for transports that cannot
+     * write the buffer directly.
+     */
+    public void writeTo(JsonGenerator generator) throws IOException {
+        message.writeTo(generator);
+    }
+
+    public ArrayNode toObjectArray(ObjectMapper mapper) {
+        return message.toObjectArray(mapper);
+    }
+}
@@ -0,0 +1,113 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The received frame the current thread is decoding. While it is set,
+ * bin values bound to {@link ByteBuffer} are read-only views of the frame
+ * instead of copies; whoever set it must then keep the frame until the
+ * views are no longer used.
+ */
+public final class InboundFrame {
+
+    private static final ThreadLocal<InboundFrame> current = new ThreadLocal<>();
+
+    private final ByteBuf buffer;
+    private final int base;
+    private boolean sliced = false;
+
+    private InboundFrame(ByteBuf buffer, int base) {
+        this.buffer = buffer;
+        this.base = base;
+    }
+
+    /**
+     * Sets the frame the parser of the current thread reads from.
+     * @param base the index of the frame the parser started reading at
+     */
+    public static InboundFrame enter(ByteBuf buffer, int base) {
+        InboundFrame frame = new InboundFrame(buffer, base);
+        current.set(frame);
+        return frame;
+    }
+
+    public void exit() {
+        current.remove();
+    }
+
+    /**
+     * @return true if a view of the frame was handed out
+     */
+    public boolean isSliced() {
+        return sliced;
+    }
+
+    /**
+     * Returns the bin value the parser is positioned at as a view of the
+     * current frame.
+     * @return the view, or null if there is no current frame or the value
+     *         is not a bin
+     */
+    public static ByteBuffer slice(JsonParser parser) throws IOException {
+        InboundFrame frame = current.get();
+        if (frame == null || parser.getCurrentToken() != JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return null;
+        }
+        return frame.slice(parser.getTokenLocation().getByteOffset(),
+                parser.getCurrentLocation().getByteOffset());
+    }
+
+    private ByteBuffer slice(long start, long end) {
+        if (start < 0 || end > buffer.writerIndex() - base) {
+            return null;
+        }
+        int index = base + (int) start;
+        int header;
+        long length;
+        switch (buffer.getUnsignedByte(index)) {
+        case 0xc4:
+            header = 2;
+            length = buffer.getUnsignedByte(index + 1);
+            break;
+        case 0xc5:
+            header = 3;
+            length = buffer.getUnsignedShort(index + 1);
+            break;
+        case 0xc6:
+            header = 5;
+            length = buffer.getUnsignedInt(index + 1);
+            break;
+        default:
+            return null;
+        }
+        if (start + header + length != end) {
+            // not where the parser says it is; let it copy the value
+            return null;
+        }
+        sliced = true;
+        return buffer.nioBuffer(index + header, (int) length).asReadOnlyBuffer();
+    }
+}
@@ -1,9 +1,21 @@
 package org.msgpack.rpc.message;
 
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
 public interface Message {
 
+    /**
+     * Writes this message as a msgpack array. Arguments and results are
+     * serialized with the generator's codec.
+     */
+    public void writeTo(JsonGenerator generator) throws IOException;
+
+    /**
+     * Builds a tree of this message, e.g. for logging.
+     */
     public ArrayNode toObjectArray(ObjectMapper mapper);
 }
@@ -21,4 +21,16 @@ public interface Messages {
     public static final int REQUEST = 0;
     public static final int RESPONSE = 1;
     public static final int NOTIFY = 2;
+
+    /**
+     * Notification that abandons a request. Its arguments are the msgid
+     * and whether the server may interrupt the request if it is running.
+     */
+    public static final String CANCEL = ".cancel";
+
+    /**
+     * Request for the server's method ids. Its result maps each method
+     * name to the integer a client may send in place of that name.
+     */
+    public static final String METHODS = ".methods";
 }
@@ -17,24 +17,66 @@
 //
 package org.msgpack.rpc.message;
 
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
 public class NotifyMessage implements Message {
 
     private String method;
-    private ArrayNode args;
+    private int methodId = -1;
+    private Object[] args;
 
-    public NotifyMessage(String method, ArrayNode args) {
+    public NotifyMessage(String method, Object[] args) {
         this.method = method;
         this.args = args;
     }
 
+    /**
+     * @param methodId the server's id of the method, sent in place of its
+     *                 name, or -1 to send the name
+     */
+    public NotifyMessage(String method, int methodId, Object[] args) {
+        this(method, args);
+        this.methodId = methodId;
+    }
+
+    public NotifyMessage(String method, ArrayNode args) {
+        this(method, Arguments.fromNode(args));
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        generator.writeNumber(Messages.NOTIFY);
+        if (methodId >= 0) {
+            generator.writeNumber(methodId);
+        } else {
+            generator.writeString(method);
+        }
+        Arguments.write(generator, args);
+        generator.writeEndArray();
+    }
+
+    Object[] elements() {
+        Object name = methodId >= 0 ? (Object) methodId : method;
+        return new Object[] { Messages.NOTIFY, name, args != null ? args : new Object[0] };
+    }
+
     public ArrayNode toObjectArray(ObjectMapper mapper) {
         ArrayNode messageNode = mapper.createArrayNode();
         messageNode.add(Messages.NOTIFY);
-        messageNode.add(method);
-        messageNode.add(args);
+        if (methodId >= 0) {
+            messageNode.add(methodId);
+        } else {
+            messageNode.add(method);
+        }
+        messageNode.add(Arguments.toNode(mapper, args));
         return messageNode;
     }
 }
@@ -17,6 +17,9 @@
 //
 package org.msgpack.rpc.message;
 
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
@@ -24,20 +27,77 @@ public class RequestMessage implements Message {
 
     private int msgId;
     private String method;
-    private ArrayNode args;
+    private int methodId = -1;
+    private Object[] args;
+    private long timeoutMillis;
 
-    public RequestMessage(int msgId, String method, ArrayNode args) {
+    public RequestMessage(int msgId, String method, Object[] args) {
+        this(msgId, method, args, 0);
+    }
+
+    /**
+     * @param timeoutMillis how long the caller waits for the response. If
+     *                      positive, it is sent as a fifth element so that
+     *                      the server can drop the request once it expires.
+     */
+    public RequestMessage(int msgId, String method, Object[] args, long timeoutMillis) {
         this.msgId = msgId;
         this.method = method;
         this.args = args;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param methodId the server's id of the method, sent in place of its
+     *                 name, or -1 to send the name
+     */
+    public RequestMessage(int msgId, String method, int methodId, Object[] args, long timeoutMillis) {
+        this(msgId, method, args, timeoutMillis);
+        this.methodId = methodId;
+    }
+
+    public RequestMessage(int msgId, String method, ArrayNode args) {
+        this(msgId, method, Arguments.fromNode(args));
+    }
+
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        generator.writeNumber(Messages.REQUEST);
+        generator.writeNumber(msgId);
+        if (methodId >= 0) {
+            generator.writeNumber(methodId);
+        } else {
+            generator.writeString(method);
+        }
+        Arguments.write(generator, args);
+        if (timeoutMillis > 0) {
+            generator.writeNumber(timeoutMillis);
+        }
+        generator.writeEndArray();
+    }
+
+    Object[] elements() {
+        Object name = methodId >= 0 ? (Object) methodId : method;
+        Object[] arguments = args != null ? args : new Object[0];
+        if (timeoutMillis > 0) {
+            return new Object[] { Messages.REQUEST, msgId, name, arguments, timeoutMillis };
+        }
+        return new Object[] { Messages.REQUEST, msgId, name, arguments };
     }
 
     public ArrayNode toObjectArray(ObjectMapper mapper) {
         ArrayNode messageNode = mapper.createArrayNode();
         messageNode.add(Messages.REQUEST);
         messageNode.add(msgId);
-        messageNode.add(method);
-        messageNode.add(args);
+        if (methodId >= 0) {
+            messageNode.add(methodId);
+        } else {
+            messageNode.add(method);
+        }
+        messageNode.add(Arguments.toNode(mapper, args));
+        if (timeoutMillis > 0) {
+            messageNode.add(timeoutMillis);
+        }
         return messageNode;
     }
 }
@@ -17,18 +17,63 @@
 //
 package org.msgpack.rpc.message;
 
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
-public class ResponseMessage implements Message {
+/**
+ * A response. It keeps the frame of its request, if any, until it has been
+ * written, since the result may be a view of that frame.
+ */
+public class ResponseMessage extends AbstractReferenceCounted implements Message {
     private int msgId;
     private Object error;
     private Object result;
+    private ByteBuf frame;
 
     public ResponseMessage(int msgId, Object error, Object result) {
+        this(msgId, error, result, null);
+    }
+
+    /**
+     * @param frame the request's frame, released with this message
+     */
+    public ResponseMessage(int msgId, Object error, Object result, ByteBuf frame) {
         this.msgId = msgId;
         this.error = error;
         this.result = result;
+        this.frame = frame;
+    }
+
+    @Override
+    protected void deallocate() {
+        if (frame != null) {
+            frame.release();
+            frame = null;
+        }
+    }
+
+    @Override
+    public ResponseMessage touch(Object hint) {
+        return this;
+    }
+
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        generator.writeNumber(Messages.RESPONSE);
+        generator.writeNumber(msgId);
+        generator.writeObject(error);
+        generator.writeObject(result);
+        generator.writeEndArray();
+    }
+
+    Object[] elements() {
+        return new Object[] { Messages.RESPONSE, msgId, error, result };
     }
 
     public ArrayNode toObjectArray(ObjectMapper mapper) {
@@ -0,0 +1,578 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import org.msgpack.rpc.annotation.Bulkhead;
+import org.msgpack.rpc.annotation.Ignore;
+import org.msgpack.rpc.annotation.Index;
+import org.msgpack.rpc.annotation.NonBlocking;
+import org.msgpack.rpc.annotation.NotNullable;
+import org.msgpack.rpc.annotation.Optional;
+import org.msgpack.rpc.annotation.RpcService;
+
+/**
+ * Generates a client stub and a server dispatcher for every interface
+ * annotated with {@link RpcService}, so that neither side scans the
+ * interface with reflection at runtime.
+ * <p>
+ * The stub {@code <Interface>$RpcStub} implements the interface on top of
+ * a {@code Session}, passing the arguments in wire order as
+ * {@code Reflect.getProxy} would. The dispatcher
+ * {@code <Interface>$RpcDispatcher} selects the method with a switch on
+ * its name and binds the arguments with the same
+ * {@code @Index}/{@code @Optional}/{@code @NotNullable} rules as
+ * {@code MethodDispatcher}. Overloaded server methods and generic
+ * methods are not supported.
+ */
+@SupportedAnnotationTypes("org.msgpack.rpc.annotation.RpcService")
+public class RpcServiceProcessor extends AbstractProcessor {
+
+    static final String STUB_SUFFIX = "$RpcStub";
+    static final String DISPATCHER_SUFFIX = "$RpcDispatcher";
+
+    private static class Entry {
+        final int index;
+        final String option;
+
+        Entry(int index, String option) {
+            this.index = index;
+            this.option = option;
+        }
+    }
+
+    private static class MethodInfo {
+        ExecutableElement element;
+        ExecutableType type;
+        String name;
+        List<String> paramNames = new ArrayList<>();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element e : roundEnv.getElementsAnnotatedWith(RpcService.class)) {
+            if (e.getKind() != ElementKind.INTERFACE) {
+                error(e, "@RpcService must annotate an interface");
+                continue;
+            }
+            TypeElement iface = (TypeElement) e;
+            if (!iface.getTypeParameters().isEmpty()) {
+                error(e, "@RpcService does not support generic interfaces");
+                continue;
+            }
+            List<MethodInfo> methods = readMethods(iface);
+            if (methods == null) {
+                continue;
+            }
+            try {
+                writeStub(iface, methods);
+                writeDispatcher(iface, methods);
+            } catch (IOException ex) {
+                error(e, "Failed to generate the stub of " + iface + ": " + ex);
+            }
+        }
+        return true;
+    }
+
+    private List<MethodInfo> readMethods(TypeElement iface) {
+        DeclaredType ifaceType = (DeclaredType) iface.asType();
+        List<MethodInfo> result = new ArrayList<>();
+        for (ExecutableElement m : ElementFilter.methodsIn(
+                processingEnv.getElementUtils().getAllMembers(iface))) {
+            Set<Modifier> mods = m.getModifiers();
+            if (m.getEnclosingElement().getKind() != ElementKind.INTERFACE
+                    || mods.contains(Modifier.STATIC) || mods.contains(Modifier.DEFAULT)
+                    || !mods.contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            if (!m.getTypeParameters().isEmpty()) {
+                error(m, "@RpcService does not support generic methods");
+                return null;
+            }
+            MethodInfo info = new MethodInfo();
+            info.element = m;
+            info.type = (ExecutableType) processingEnv.getTypeUtils().asMemberOf(ifaceType, m);
+            info.name = m.getSimpleName().toString();
+            for (int i = 0; i < m.getParameters().size(); i++) {
+                info.paramNames.add("a" + i);
+            }
+            result.add(info);
+        }
+        return result;
+    }
+
+    // client stub
+
+    private void writeStub(TypeElement iface, List<MethodInfo> methods) throws IOException {
+        String pkg = packageName(iface);
+        String name = simpleBinaryName(iface) + STUB_SUFFIX;
+        try (PrintWriter w = new PrintWriter(processingEnv.getFiler()
+                .createSourceFile(qualify(pkg, name), iface).openWriter())) {
+            if (!pkg.isEmpty()) {
+                w.println("package " + pkg + ";");
+                w.println();
+            }
+            w.println("public final class " + name + " implements " + iface.getQualifiedName() + " {");
+            w.println("    private final org.msgpack.rpc.Session session;");
+            for (int i = 0; i < methods.size(); i++) {
+                if (resultType(methods.get(i)) != null) {
+                    w.println("    private final com.fasterxml.jackson.databind.JavaType r" + i + ";");
+                }
+            }
+            w.println();
+            w.println("    public " + name + "(org.msgpack.rpc.Session session) {");
+            w.println("        this.session = session;");
+            w.println("        com.fasterxml.jackson.databind.type.TypeFactory types =");
+            w.println("                session.getEventLoop().getObjectMapper().getTypeFactory();");
+            for (int i = 0; i < methods.size(); i++) {
+                TypeMirror t = resultType(methods.get(i));
+                if (t != null) {
+                    w.println("        this.r" + i + " = " + javaType(t) + ";");
+                }
+            }
+            w.println("    }");
+            for (int i = 0; i < methods.size(); i++) {
+                w.println();
+                writeStubMethod(w, methods.get(i), i);
+            }
+            w.println("}");
+        }
+    }
+
+    private void writeStubMethod(PrintWriter w, MethodInfo m, int i) {
+        writeSignature(w, m);
+        List<? extends TypeMirror> params = m.type.getParameterTypes();
+        if (!params.isEmpty() && isType(params.get(0), "org.msgpack.rpc.Callback")) {
+            // not a client method
+            w.println("        throw new UnsupportedOperationException();");
+            w.println("    }");
+            return;
+        }
+        StringBuilder args = new StringBuilder("new Object[] {");
+        String sep = " ";
+        for (Entry e : readEntries(m.element, 0)) {
+            args.append(sep).append(e == null ? "null" : m.paramNames.get(e.index));
+            sep = ", ";
+        }
+        args.append(" }");
+
+        TypeMirror ret = m.type.getReturnType();
+        String lit = "\"" + rpcName(m) + "\"";
+        if (ret.getKind() == TypeKind.VOID) {
+            w.println("        session.callApply(" + lit + ", " + args + ");");
+        } else if (isFuture(ret)) {
+            w.println("        return session.callAsyncApply(" + lit + ", r" + i + ", " + args + ");");
+        } else if (isCompletionStage(ret)) {
+            w.println("        return session.callAsync(" + lit + ", r" + i + ", " + args + ");");
+        } else {
+            w.println("        return session.<" + boxed(ret) + ">callApply(" + lit + ", r" + i + ", " + args + ");");
+        }
+        w.println("    }");
+    }
+
+    private void writeSignature(PrintWriter w, MethodInfo m) {
+        StringBuilder sb = new StringBuilder("    public ");
+        sb.append(m.type.getReturnType()).append(' ').append(m.name).append('(');
+        List<? extends TypeMirror> params = m.type.getParameterTypes();
+        for (int j = 0; j < params.size(); j++) {
+            if (j > 0) {
+                sb.append(", ");
+            }
+            sb.append(params.get(j)).append(' ').append(m.paramNames.get(j));
+        }
+        sb.append(')');
+        List<? extends TypeMirror> thrown = m.type.getThrownTypes();
+        for (int j = 0; j < thrown.size(); j++) {
+            sb.append(j == 0 ? " throws " : ", ").append(thrown.get(j));
+        }
+        w.println(sb.append(" {"));
+    }
+
+    /**
+     * The type the result is bound to, or null if the method returns nothing.
+     */
+    private TypeMirror resultType(MethodInfo m) {
+        TypeMirror ret = m.type.getReturnType();
+        if (ret.getKind() == TypeKind.VOID) {
+            return null;
+        }
+        if (isAsync(ret)) {
+            List<? extends TypeMirror> args = ((DeclaredType) ret).getTypeArguments();
+            return args.isEmpty()
+                    ? processingEnv.getElementUtils().getTypeElement("java.lang.Object").asType()
+                    : args.get(0);
+        }
+        return ret;
+    }
+
+    // server dispatcher
+
+    private void writeDispatcher(TypeElement iface, List<MethodInfo> all) throws IOException {
+        List<MethodInfo> methods = new ArrayList<>();
+        Set<String> syncNames = new HashSet<>();
+        for (MethodInfo m : all) {
+            if (!isAsync(m.type.getReturnType())) {
+                syncNames.add(m.name);
+            }
+        }
+        Set<String> names = new HashSet<>();
+        for (MethodInfo m : all) {
+            TypeMirror ret = m.type.getReturnType();
+            if (isFuture(ret) || (isCompletionStage(ret) && !rpcName(m).equals(m.name)
+                    && syncNames.contains(rpcName(m)))) {
+                // client side only, the server runs the method it stands for
+                continue;
+            }
+            if (!names.add(rpcName(m))) {
+                error(m.element, "@RpcService does not support overloaded methods: " + m.name);
+                return;
+            }
+            methods.add(m);
+        }
+
+        String pkg = packageName(iface);
+        String name = simpleBinaryName(iface) + DISPATCHER_SUFFIX;
+        try (PrintWriter w = new PrintWriter(processingEnv.getFiler()
+                .createSourceFile(qualify(pkg, name), iface).openWriter())) {
+            if (!pkg.isEmpty()) {
+                w.println("package " + pkg + ";");
+                w.println();
+            }
+            w.println("public final class " + name + " implements org.msgpack.rpc.dispatcher.Dispatcher,");
+            w.println("        org.msgpack.rpc.dispatcher.ArgumentsReaderResolver,");
+            w.println("        org.msgpack.rpc.dispatcher.NonBlockingResolver,");
+            w.println("        org.msgpack.rpc.dispatcher.BulkheadResolver,");
+            w.println("        org.msgpack.rpc.dispatcher.MethodNamesResolver {");
+            w.println("    private final " + iface.getQualifiedName() + " target;");
+            for (int i = 0; i < methods.size(); i++) {
+                w.println("    private final org.msgpack.rpc.reflect.ArgumentsBinder b" + i + ";");
+            }
+            w.println();
+            w.println("    public " + name + "(" + iface.getQualifiedName()
+                    + " target, com.fasterxml.jackson.databind.ObjectMapper mapper) {");
+            w.println("        this.target = target;");
+            w.println("        org.msgpack.rpc.reflect.ReflectionInvokerBuilder builder =");
+            w.println("                new org.msgpack.rpc.reflect.ReflectionInvokerBuilder(mapper);");
+            for (int i = 0; i < methods.size(); i++) {
+                writeBinder(w, methods.get(i), i);
+            }
+            w.println("    }");
+            w.println();
+
+            w.println("    @SuppressWarnings({ \"unchecked\", \"rawtypes\" })");
+            w.println("    public void dispatch(org.msgpack.rpc.Request request) throws Exception {");
+            w.println("        switch (request.getMethodName()) {");
+            for (int i = 0; i < methods.size(); i++) {
+                writeCase(w, methods.get(i), i);
+            }
+            w.println("        default:");
+            w.println("            throw new java.io.IOException(\".CallError.NoMethodError\");");
+            w.println("        }");
+            w.println("    }");
+            w.println();
+
+            w.println("    public org.msgpack.rpc.reflect.ArgumentsReader getArgumentsReader(String method) {");
+            w.println("        switch (method) {");
+            for (int i = 0; i < methods.size(); i++) {
+                w.println("        case \"" + rpcName(methods.get(i)) + "\":");
+                w.println("            return b" + i + ";");
+            }
+            w.println("        default:");
+            w.println("            return null;");
+            w.println("        }");
+            w.println("    }");
+            w.println();
+
+            w.println("    public boolean isNonBlocking(String method) {");
+            List<String> nonBlocking = new ArrayList<>();
+            for (MethodInfo m : methods) {
+                if (m.element.getAnnotation(NonBlocking.class) != null) {
+                    nonBlocking.add(rpcName(m));
+                }
+            }
+            if (nonBlocking.isEmpty()) {
+                w.println("        return false;");
+            } else {
+                w.println("        switch (method) {");
+                for (String n : nonBlocking) {
+                    w.println("        case \"" + n + "\":");
+                }
+                w.println("            return true;");
+                w.println("        default:");
+                w.println("            return false;");
+                w.println("        }");
+            }
+            w.println("    }");
+            w.println();
+
+            w.println("    public java.util.Collection<String> getMethodNames() {");
+            StringBuilder list = new StringBuilder();
+            for (MethodInfo m : methods) {
+                list.append(list.length() == 0 ? "" : ", ").append('"').append(rpcName(m)).append('"');
+            }
+            w.println("        return java.util.Arrays.asList(" + list + ");");
+            w.println("    }");
+            w.println();
+
+            w.println("    public String getBulkhead(String method) {");
+            w.println("        switch (method) {");
+            for (MethodInfo m : methods) {
+                Bulkhead bulkhead = m.element.getAnnotation(Bulkhead.class);
+                if (bulkhead != null) {
+                    w.println("        case \"" + rpcName(m) + "\":");
+                    w.println("            return " + processingEnv.getElementUtils()
+                            .getConstantExpression(bulkhead.value()) + ";");
+                }
+            }
+            w.println("        default:");
+            w.println("            return null;");
+            w.println("        }");
+            w.println("    }");
+            w.println("}");
+        }
+    }
+
+    private void writeBinder(PrintWriter w, MethodInfo m, int i) {
+        List<? extends TypeMirror> params = m.type.getParameterTypes();
+        int offset = isCallbackMethod(m) ? 1 : 0;
+        w.println("        this.b" + i + " = builder.buildArgumentsBinder(\"" + m.name + "\", "
+                + params.size() + ",");
+        w.println("                new org.msgpack.rpc.reflect.InvokerBuilder.ArgumentEntry[] {");
+        for (Entry e : readEntries(m.element, offset)) {
+            if (e == null) {
+                w.println("                        new org.msgpack.rpc.reflect.InvokerBuilder.ArgumentEntry(),");
+            } else {
+                w.println("                        new org.msgpack.rpc.reflect.InvokerBuilder.ArgumentEntry("
+                        + e.index + ", " + reflectType(params.get(e.index))
+                        + ", org.msgpack.rpc.reflect.FieldOption." + e.option + "),");
+            }
+        }
+        w.println("                });");
+    }
+
+    private void writeCase(PrintWriter w, MethodInfo m, int i) {
+        List<? extends TypeMirror> params = m.type.getParameterTypes();
+        boolean callback = isCallbackMethod(m);
+        StringBuilder call = new StringBuilder("target.").append(m.name).append('(');
+        for (int j = 0; j < params.size(); j++) {
+            if (j > 0) {
+                call.append(", ");
+            }
+            if (j == 0 && callback) {
+                call.append("(org.msgpack.rpc.Callback) request");
+            } else {
+                call.append(argument(params.get(j), "p[" + j + "]"));
+            }
+        }
+        call.append(')');
+
+        w.println("        case \"" + rpcName(m) + "\": {");
+        w.println("            Object[] p = b" + i + ".bindArguments(request);");
+        if (callback) {
+            w.println("            " + call + ";");
+        } else if (m.type.getReturnType().getKind() == TypeKind.VOID) {
+            w.println("            " + call + ";");
+            w.println("            request.sendResult(null);");
+        } else if (isCompletionStage(m.type.getReturnType())) {
+            w.println("            request.sendResultWhenComplete(" + call + ");");
+        } else {
+            w.println("            request.sendResult(" + call + ");");
+        }
+        w.println("            break;");
+        w.println("        }");
+    }
+
+    /**
+     * Converts a bound parameter to the parameter type. Missing primitives,
+     * such as omitted optional ones, get their default value.
+     */
+    private static String argument(TypeMirror t, String v) {
+        switch (t.getKind()) {
+        case BOOLEAN:
+            return "(" + v + " != null && (Boolean) " + v + ")";
+        case CHAR:
+            return "(" + v + " == null ? '\\0' : (Character) " + v + ")";
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+        case FLOAT:
+        case DOUBLE:
+            return "(" + v + " == null ? 0 : ((Number) " + v + ")." + t + "Value())";
+        default:
+            return "(" + t + ") " + v;
+        }
+    }
+
+    private boolean isCallbackMethod(MethodInfo m) {
+        List<? extends TypeMirror> params = m.type.getParameterTypes();
+        return !params.isEmpty() && isType(params.get(0), "org.msgpack.rpc.Callback");
+    }
+
+    // argument entries, see InvokerBuilder.readArgumentEntries
+
+    private Entry[] readEntries(ExecutableElement m, int offset) {
+        List<? extends VariableElement> params = m.getParameters();
+        List<Entry> indexed = new ArrayList<>();
+        int maxIndex = -1;
+        for (int i = offset; i < params.size(); i++) {
+            VariableElement p = params.get(i);
+            String option;
+            if (p.getAnnotation(Ignore.class) != null) {
+                continue;
+            } else if (p.getAnnotation(NotNullable.class) != null) {
+                option = "NOTNULLABLE";
+            } else if (p.getAnnotation(Optional.class) != null) {
+                option = "OPTIONAL";
+            } else if (p.asType().getKind().isPrimitive()) {
+                option = "NOTNULLABLE";
+            } else {
+                option = "DEFAULT";
+            }
+
+            Index a = p.getAnnotation(Index.class);
+            int index = a == null ? maxIndex + 1 : a.value();
+            if (index < 0 || (indexed.size() > index && indexed.get(index) != null)) {
+                error(p, "invalid or duplicated index: " + index);
+                return new Entry[0];
+            }
+            while (indexed.size() <= index) {
+                indexed.add(null);
+            }
+            indexed.set(index, new Entry(i, option));
+            if (maxIndex < index) {
+                maxIndex = index;
+            }
+        }
+        return indexed.toArray(new Entry[maxIndex + 1]);
+    }
+
+    /**
+     * The name the method is called by: asynchronous methods drop the
+     * "Async" suffix, so that they call the method they stand for.
+     */
+    private String rpcName(MethodInfo m) {
+        if (isAsync(m.type.getReturnType()) && m.name.endsWith("Async")) {
+            return m.name.substring(0, m.name.length() - 5);
+        }
+        return m.name;
+    }
+
+    // types
+
+    private boolean isAsync(TypeMirror t) {
+        return isFuture(t) || isCompletionStage(t);
+    }
+
+    private boolean isFuture(TypeMirror t) {
+        return isType(t, "org.msgpack.rpc.Future") || isType(t, "java.util.concurrent.Future");
+    }
+
+    private boolean isCompletionStage(TypeMirror t) {
+        return isType(t, "java.util.concurrent.CompletableFuture")
+                || isType(t, "java.util.concurrent.CompletionStage");
+    }
+
+    private boolean isType(TypeMirror t, String name) {
+        return t.getKind() == TypeKind.DECLARED
+                && ((TypeElement) ((DeclaredType) t).asElement()).getQualifiedName().contentEquals(name);
+    }
+
+    private static boolean isGeneric(TypeMirror t) {
+        if (t.getKind() == TypeKind.ARRAY) {
+            return isGeneric(((ArrayType) t).getComponentType());
+        }
+        return t.getKind() == TypeKind.DECLARED && !((DeclaredType) t).getTypeArguments().isEmpty();
+    }
+
+    private String classLiteral(TypeMirror t) {
+        return processingEnv.getTypeUtils().erasure(t) + ".class";
+    }
+
+    private String javaType(TypeMirror t) {
+        if (isGeneric(t)) {
+            return "types.constructType(new com.fasterxml.jackson.core.type.TypeReference<" + t + ">() {})";
+        }
+        return "types.constructType(" + classLiteral(t) + ")";
+    }
+
+    private String reflectType(TypeMirror t) {
+        if (isGeneric(t)) {
+            return "new com.fasterxml.jackson.core.type.TypeReference<" + t + ">() {}.getType()";
+        }
+        return classLiteral(t);
+    }
+
+    private String boxed(TypeMirror t) {
+        if (t.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) t)
+                    .getQualifiedName().toString();
+        }
+        return t.toString();
+    }
+
+    private String packageName(TypeElement e) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(e);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    private String simpleBinaryName(TypeElement e) {
+        String binary = processingEnv.getElementUtils().getBinaryName(e).toString();
+        String pkg = packageName(e);
+        return pkg.isEmpty() ? binary : binary.substring(pkg.length() + 1);
+    }
+
+    private static String qualify(String pkg, String name) {
+        return pkg.isEmpty() ? name : pkg + "." + name;
+    }
+
+    private void error(Element e, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+}
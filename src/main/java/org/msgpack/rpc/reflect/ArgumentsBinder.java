@@ -0,0 +1,34 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.reflect;
+
+import org.msgpack.rpc.Request;
+
+/**
+ * Reads the arguments of a method either while the request is decoded or
+ * from its arguments array.
+ */
+public interface ArgumentsBinder extends ArgumentsReader {
+
+    /**
+     * Returns the parameters of the request, bound when it was decoded if
+     * this binder read them, converted from {@link Request#getArguments()} otherwise.
+     * @throws IllegalArgumentException if the arguments do not match the method
+     */
+    Object[] bindArguments(Request request) throws Exception;
+}
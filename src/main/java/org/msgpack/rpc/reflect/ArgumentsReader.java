@@ -0,0 +1,59 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.reflect;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * Binds the arguments of a request straight from the wire into the
+ * parameter types of the method that will handle it.
+ */
+public interface ArgumentsReader {
+
+    /**
+     * Reads the arguments array the parser is positioned at.
+     * @return the parameters, ready to be passed to the method
+     * @throws IllegalArgumentException if the arguments do not match the
+     *         method; the parser is then left at the end of the array
+     */
+    Object[] readArguments(JsonParser parser) throws IOException;
+
+    /**
+     * Rebuilds the arguments array from parameters read by this reader.
+     */
+    ArrayNode toArgumentsNode(Object[] params);
+
+    /**
+     * Moves the parser to the END_ARRAY of an arguments array whose reading
+     * stopped part way.
+     * @param arguments the parsing context of the array, taken at its START_ARRAY
+     */
+    static void skipArguments(JsonParser parser, JsonStreamContext arguments) throws IOException {
+        final JsonStreamContext outer = arguments.getParent();
+        while (parser.getParsingContext() != outer || parser.getCurrentToken() != JsonToken.END_ARRAY) {
+            if (parser.nextToken() == null) {
+                return;
+            }
+        }
+    }
+}
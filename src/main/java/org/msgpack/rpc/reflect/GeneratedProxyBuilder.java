@@ -0,0 +1,169 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.reflect;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.msgpack.rpc.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds proxies from a class generated per interface instead of
+ * {@link java.lang.reflect.Proxy}. The generated methods pass their
+ * arguments in wire order with the precomputed name and result type of
+ * the method, without a lookup by {@link Method}.
+ * Interfaces that a class in another class loader cannot implement, such
+ * as non-public ones, get a {@link ReflectionProxyBuilder} proxy instead.
+ */
+public class GeneratedProxyBuilder extends ProxyBuilder {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeneratedProxyBuilder.class);
+
+    static class MethodCall {
+        final String rpcName;
+        final boolean async;
+        final boolean completionStage;
+        final JavaType returnType;
+
+        MethodCall(MethodEntry e, JavaType returnType) {
+            this.rpcName = e.getRpcName();
+            this.async = e.isAsync();
+            this.completionStage = e.isCompletionStage();
+            this.returnType = returnType;
+        }
+    }
+
+    /**
+     * Superclass of the generated proxies.
+     */
+    public static abstract class ProxyBase {
+        private final Session session;
+        private final MethodCall[] calls;
+
+        protected ProxyBase(Session session, MethodCall[] calls) {
+            this.session = session;
+            this.calls = calls;
+        }
+
+        protected final Object call(int index, Object[] params) {
+            MethodCall c = calls[index];
+            if (c.completionStage) {
+                return session.callAsync(c.rpcName, c.returnType, params);
+            } else if (c.async) {
+                return session.callAsyncApply(c.rpcName, c.returnType, params);
+            } else {
+                return session.callApply(c.rpcName, c.returnType, params);
+            }
+        }
+    }
+
+    static class GeneratedProxy<T> implements Proxy<T> {
+        private final Constructor<?> constructor;
+        private final MethodCall[] calls;
+
+        GeneratedProxy(Constructor<?> constructor, MethodCall[] calls) {
+            this.constructor = constructor;
+            this.calls = calls;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T newProxyInstance(Session s) {
+            try {
+                return (T) constructor.newInstance(s, calls);
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                // FIXME exception
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static class ProxyClassLoader extends ClassLoader {
+        ProxyClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            // the interface's loader may not see this library
+            return GeneratedProxyBuilder.class.getClassLoader().loadClass(name);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private ObjectMapper mapper;
+    private ReflectionProxyBuilder fallback;
+
+    public GeneratedProxyBuilder(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.fallback = new ReflectionProxyBuilder(mapper);
+    }
+
+    public <T> Proxy<T> buildProxy(Class<T> iface, MethodEntry[] entries) {
+        if (!isGeneratable(iface, entries)) {
+            return fallback.buildProxy(iface, entries);
+        }
+
+        Method[] methods = new Method[entries.length];
+        InvokerBuilder.ArgumentEntry[][] arguments = new InvokerBuilder.ArgumentEntry[entries.length][];
+        MethodCall[] calls = new MethodCall[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            MethodEntry e = entries[i];
+            methods[i] = e.getMethod();
+            arguments[i] = e.getArgumentEntries();
+            calls[i] = new MethodCall(e, mapper.constructType(e.getGenericReturnType()));
+        }
+
+        String className = iface.getName() + "$$RpcProxy";
+        try {
+            byte[] bytes = new ProxyClassGenerator().generate(className, iface, methods, arguments);
+            Class<?> proxyClass = new ProxyClassLoader(iface.getClassLoader()).define(className, bytes);
+            Constructor<?> constructor = proxyClass.getConstructor(Session.class, MethodCall[].class);
+            return new GeneratedProxy<T>(constructor, calls);
+        } catch (Exception | LinkageError e) {
+            logger.debug("Cannot generate a proxy class for " + iface.getName(), e);
+            return fallback.buildProxy(iface, entries);
+        }
+    }
+
+    private static boolean isGeneratable(Class<?> iface, MethodEntry[] entries) {
+        if (!ProxyClassGenerator.isAccessible(iface) || iface.getName().startsWith("java.")) {
+            return false;
+        }
+        for (MethodEntry e : entries) {
+            Method method = e.getMethod();
+            if (!ProxyClassGenerator.isAccessible(method.getReturnType())) {
+                return false;
+            }
+            for (Class<?> type : method.getParameterTypes()) {
+                if (!ProxyClassGenerator.isAccessible(type)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
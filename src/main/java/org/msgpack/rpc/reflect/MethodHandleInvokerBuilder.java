@@ -0,0 +1,89 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.reflect;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Binds handler methods with {@link MethodHandle}s instead of core
+ * reflection. Each handle is adapted once to {@code (Object, Object[])Object}
+ * and called with {@code invokeExact}, which skips the access checks of
+ * {@link Method#invoke} and does not wrap exceptions thrown by the handler.
+ * Arguments are read and converted exactly as {@link ReflectionInvokerBuilder} does.
+ */
+public class MethodHandleInvokerBuilder extends ReflectionInvokerBuilder {
+
+    private static final MethodType INVOKER_TYPE =
+            MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    public MethodHandleInvokerBuilder(ObjectMapper mapper) {
+        super(mapper);
+    }
+
+    static class MethodHandleInvoker extends ReflectionInvoker {
+        private final MethodHandle handle;
+
+        MethodHandleInvoker(Method method, MethodHandle handle, ReflectionArgumentEntry[] entries,
+                            boolean async, ObjectMapper mapper) {
+            super(method, entries, async, mapper);
+            this.handle = handle;
+        }
+
+        @Override
+        protected Object call(Object target, Object[] params) throws Exception {
+            try {
+                return (Object) handle.invokeExact(target, params);
+            } catch (Exception e) {
+                throw e;
+            } catch (Throwable e) {
+                // same as the reflection invoker
+                throw new InvocationTargetException(e);
+            }
+        }
+    }
+
+    public Invoker buildInvoker(Method targetMethod, ArgumentEntry[] entries, boolean async) {
+        int mod = targetMethod.getModifiers();
+        if (!Modifier.isPublic(mod) || !Modifier.isPublic(targetMethod.getDeclaringClass().getModifiers())) {
+            targetMethod.setAccessible(true);
+        }
+
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup().unreflect(targetMethod);
+        } catch (IllegalAccessException e) {
+            // FIXME exception
+            throw new IllegalArgumentException("Cannot access method: " + targetMethod, e);
+        }
+        if (Modifier.isStatic(mod)) {
+            // the target is ignored
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        handle = handle.asSpreader(Object[].class, targetMethod.getParameterTypes().length)
+                .asType(INVOKER_TYPE);
+
+        return new MethodHandleInvoker(targetMethod, handle, buildArgumentEntries(entries), async, mapper);
+    }
+}
@@ -25,15 +25,23 @@ public abstract class ProxyBuilder {
         private String rpcName;
         private Type genericReturnType;
         private boolean async;
+        private boolean completionStage;
         private InvokerBuilder.ArgumentEntry[] argumentEntries;
 
         public MethodEntry(Method method, String rpcName,
                            Type genericReturnType, boolean async,
                            InvokerBuilder.ArgumentEntry[] argumentEntries) {
+            this(method, rpcName, genericReturnType, async, false, argumentEntries);
+        }
+
+        public MethodEntry(Method method, String rpcName,
+                           Type genericReturnType, boolean async, boolean completionStage,
+                           InvokerBuilder.ArgumentEntry[] argumentEntries) {
             this.method = method;
             this.rpcName = rpcName;
             this.genericReturnType = genericReturnType;
             this.async = async;
+            this.completionStage = completionStage;
             this.argumentEntries = argumentEntries;
         }
 
@@ -57,6 +65,13 @@ public abstract class ProxyBuilder {
             return async;
         }
 
+        /**
+         * Whether the method returns a CompletableFuture or CompletionStage.
+         */
+        public boolean isCompletionStage() {
+            return completionStage;
+        }
+
         public InvokerBuilder.ArgumentEntry[] getArgumentEntries() {
             return argumentEntries;
         }
@@ -77,6 +92,12 @@ public abstract class ProxyBuilder {
                 targetMethod.getReturnType().equals( java.util.concurrent.Future.class );
     }
 
+    static boolean isCompletionStageMethod(Method targetMethod) {
+        // return type is CompletableFuture<T> or CompletionStage<T>
+        return targetMethod.getReturnType().equals( java.util.concurrent.CompletableFuture.class ) ||
+                targetMethod.getReturnType().equals( java.util.concurrent.CompletionStage.class );
+    }
+
 
     private static void checkValidation(Class<?> iface) {
         if(!iface.isInterface()) {
@@ -95,7 +116,8 @@ public abstract class ProxyBuilder {
             InvokerBuilder.ArgumentEntry[] argumentEntries =
                     InvokerBuilder.readArgumentEntries(method, false);
 
-            boolean async = isAsyncMethod(method);
+            boolean completionStage = isCompletionStageMethod(method);
+            boolean async = completionStage || isAsyncMethod(method);
 
             String rpcName = method.getName();
             if(async) {
@@ -112,7 +134,7 @@ public abstract class ProxyBuilder {
             }
 
             result[i] = new MethodEntry(method, rpcName,
-                    returnType, async, argumentEntries);
+                    returnType, async, completionStage, argumentEntries);
         }
 
         return result;
@@ -0,0 +1,385 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.reflect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.msgpack.rpc.Session;
+
+/**
+ * Writes the class file of a proxy that implements an interface on top of
+ * {@link GeneratedProxyBuilder.ProxyBase}. Every interface method stores its
+ * arguments straight into an array in wire order and calls
+ * {@code ProxyBase.call} with the index of its precomputed entry.
+ * The code has no branches, so no stack map frames are needed.
+ */
+class ProxyClassGenerator {
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int FLOAD = 0x17;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int AASTORE = 0x53;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IRETURN = 0xac;
+    private static final int LRETURN = 0xad;
+    private static final int FRETURN = 0xae;
+    private static final int DRETURN = 0xaf;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int ANEWARRAY = 0xbd;
+    private static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+
+    private static final String BASE = internalName(GeneratedProxyBuilder.ProxyBase.class);
+    private static final String CALL_DESC = "(I[Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String INIT_DESC = "(" + descriptor(Session.class)
+            + descriptor(GeneratedProxyBuilder.MethodCall[].class) + ")V";
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    /**
+     * @param methods the interface methods, in the order of the entries
+     *                {@code ProxyBase.call} receives the index of
+     * @param entries the argument entries of each method, in wire order
+     */
+    byte[] generate(String className, Class<?> iface, Method[] methods,
+                    InvokerBuilder.ArgumentEntry[][] entries) throws IOException {
+        ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(methodBytes);
+
+        int thisClass = classRef(className.replace('.', '/'));
+        int superClass = classRef(BASE);
+        int ifaceClass = classRef(internalName(iface));
+
+        writeConstructor(out);
+        for (int i = 0; i < methods.length; i++) {
+            writeMethod(out, i, methods[i], entries[i]);
+        }
+        out.flush();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream cf = new DataOutputStream(bytes);
+        cf.writeInt(0xCAFEBABE);
+        cf.writeShort(0);
+        cf.writeShort(52);
+        pool.flush();
+        cf.writeShort(poolCount);
+        poolBytes.writeTo(cf);
+        cf.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        cf.writeShort(thisClass);
+        cf.writeShort(superClass);
+        cf.writeShort(1);
+        cf.writeShort(ifaceClass);
+        cf.writeShort(0); // fields
+        cf.writeShort(methods.length + 1);
+        methodBytes.writeTo(cf);
+        cf.writeShort(0); // attributes
+        cf.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeConstructor(DataOutputStream out) throws IOException {
+        Code code = new Code();
+        code.op(ALOAD_0);
+        code.op(ALOAD_1);
+        code.op(ALOAD_2);
+        code.op(INVOKESPECIAL);
+        code.u2(methodRef(BASE, "<init>", INIT_DESC));
+        code.op(RETURN);
+        writeCode(out, "<init>", INIT_DESC, code, 3, 3);
+    }
+
+    private void writeMethod(DataOutputStream out, int index, Method method,
+                             InvokerBuilder.ArgumentEntry[] entries) throws IOException {
+        Class<?>[] types = method.getParameterTypes();
+        int[] slots = new int[types.length];
+        int locals = 1;
+        for (int i = 0; i < types.length; i++) {
+            slots[i] = locals;
+            locals += (types[i] == long.class || types[i] == double.class) ? 2 : 1;
+        }
+
+        Code code = new Code();
+        code.op(ALOAD_0);
+        pushInt(code, index);
+        pushInt(code, entries.length);
+        code.op(ANEWARRAY);
+        code.u2(classRef("java/lang/Object"));
+        for (int i = 0; i < entries.length; i++) {
+            InvokerBuilder.ArgumentEntry e = entries[i];
+            if (!e.isAvailable()) {
+                continue;
+            }
+            Class<?> type = types[e.getIndex()];
+            code.op(DUP);
+            pushInt(code, i);
+            load(code, type, slots[e.getIndex()]);
+            if (type.isPrimitive()) {
+                Class<?> wrapper = wrapper(type);
+                code.op(INVOKESTATIC);
+                code.u2(methodRef(internalName(wrapper), "valueOf",
+                        "(" + descriptor(type) + ")" + descriptor(wrapper)));
+            }
+            code.op(AASTORE);
+        }
+        code.op(INVOKEVIRTUAL);
+        code.u2(methodRef(BASE, "call", CALL_DESC));
+
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            code.op(POP);
+            code.op(RETURN);
+        } else if (returnType.isPrimitive()) {
+            Class<?> wrapper = wrapper(returnType);
+            code.op(CHECKCAST);
+            code.u2(classRef(internalName(wrapper)));
+            code.op(INVOKEVIRTUAL);
+            code.u2(methodRef(internalName(wrapper), returnType.getName() + "Value",
+                    "()" + descriptor(returnType)));
+            code.op(returnType == long.class ? LRETURN
+                    : returnType == float.class ? FRETURN
+                    : returnType == double.class ? DRETURN : IRETURN);
+        } else {
+            if (returnType != Object.class) {
+                code.op(CHECKCAST);
+                code.u2(classRef(internalName(returnType)));
+            }
+            code.op(ARETURN);
+        }
+
+        // this, index, array, array, index, value (2 slots at most)
+        writeCode(out, method.getName(), methodDescriptor(method), code, 7, locals);
+    }
+
+    private void writeCode(DataOutputStream out, String name, String desc, Code code,
+                           int maxStack, int maxLocals) throws IOException {
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(desc));
+        out.writeShort(1);
+        out.writeShort(utf8("Code"));
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private void pushInt(Code code, int value) throws IOException {
+        if (value >= -1 && value <= 5) {
+            code.op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op(BIPUSH);
+            code.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op(SIPUSH);
+            code.u2(value);
+        } else {
+            code.op(LDC_W);
+            code.u2(intConstant(value));
+        }
+    }
+
+    private static void load(Code code, Class<?> type, int slot) throws IOException {
+        int op;
+        if (type == long.class) {
+            op = LLOAD;
+        } else if (type == float.class) {
+            op = FLOAD;
+        } else if (type == double.class) {
+            op = DLOAD;
+        } else if (type.isPrimitive()) {
+            op = ILOAD;
+        } else {
+            op = ALOAD;
+        }
+        if (slot > 0xff) {
+            code.op(WIDE);
+            code.op(op);
+            code.u2(slot);
+        } else {
+            code.op(op);
+            code.u1(slot);
+        }
+    }
+
+    private int utf8(String value) throws IOException {
+        Integer index = poolIndex.get("U" + value);
+        if (index == null) {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+            index = add("U" + value, 1);
+        }
+        return index;
+    }
+
+    private int intConstant(int value) throws IOException {
+        Integer index = poolIndex.get("I" + value);
+        if (index == null) {
+            pool.writeByte(3);
+            pool.writeInt(value);
+            index = add("I" + value, 1);
+        }
+        return index;
+    }
+
+    private int classRef(String internalName) throws IOException {
+        Integer index = poolIndex.get("C" + internalName);
+        if (index == null) {
+            int name = utf8(internalName);
+            pool.writeByte(7);
+            pool.writeShort(name);
+            index = add("C" + internalName, 1);
+        }
+        return index;
+    }
+
+    private int methodRef(String owner, String name, String desc) throws IOException {
+        String key = "M" + owner + "." + name + desc;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descIndex = utf8(desc);
+            pool.writeByte(12);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descIndex);
+            int nameAndType = add("N" + name + desc, 1);
+            pool.writeByte(10);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+            index = add(key, 1);
+        }
+        return index;
+    }
+
+    private int add(String key, int slots) {
+        int index = poolCount;
+        poolCount += slots;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    static String internalName(Class<?> type) {
+        return type.isArray() ? descriptor(type) : type.getName().replace('.', '/');
+    }
+
+    static String methodDescriptor(Method method) {
+        StringBuilder sb = new StringBuilder("(");
+        for (Class<?> type : method.getParameterTypes()) {
+            sb.append(descriptor(type));
+        }
+        return sb.append(')').append(descriptor(method.getReturnType())).toString();
+    }
+
+    static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return "[" + descriptor(type.getComponentType());
+        } else if (type == void.class) {
+            return "V";
+        } else if (type == boolean.class) {
+            return "Z";
+        } else if (type == byte.class) {
+            return "B";
+        } else if (type == char.class) {
+            return "C";
+        } else if (type == short.class) {
+            return "S";
+        } else if (type == int.class) {
+            return "I";
+        } else if (type == long.class) {
+            return "J";
+        } else if (type == float.class) {
+            return "F";
+        } else if (type == double.class) {
+            return "D";
+        }
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    static Class<?> wrapper(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == char.class) {
+            return Character.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == float.class) {
+            return Float.class;
+        }
+        return Double.class;
+    }
+
+    /**
+     * Whether a class in another class loader can refer to the type.
+     */
+    static boolean isAccessible(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+    }
+
+    private static class Code extends ByteArrayOutputStream {
+        void op(int op) {
+            write(op);
+        }
+
+        void u1(int value) {
+            write(value);
+        }
+
+        void u2(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+    }
+}
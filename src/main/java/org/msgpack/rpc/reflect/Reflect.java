@@ -19,10 +19,20 @@ package org.msgpack.rpc.reflect;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+import org.msgpack.rpc.Session;
+import org.msgpack.rpc.annotation.RpcService;
+
+/**
+ * Caches the proxies and invokers built for interfaces and methods. Lookups
+ * take no lock, so one instance can be shared by every session of an
+ * EventLoop, see {@code EventLoop.getReflect}.
+ */
 public class Reflect {
     /*
      * private static final Reflect instance = new Reflect();
@@ -34,16 +44,25 @@ public class Reflect {
      * instance.getInvoker(method); }
      */
 
-    private Map<Class<?>, Proxy<?>> proxyCache = new HashMap<>();
+    private final ClassValue<Proxy<?>> proxyCache = new ClassValue<Proxy<?>>() {
+        @Override
+        protected Proxy<?> computeValue(Class<?> iface) {
+            Proxy<?> proxy = findGeneratedProxy(iface);
+            if (proxy == null) {
+                proxy = proxyBuilder.buildProxy(iface);
+            }
+            return proxy;
+        }
+    };
 
-    private Map<Method, Invoker> invokerCache = new HashMap<>();
+    private final ConcurrentMap<Method, Invoker> invokerCache = new ConcurrentHashMap<>();
 
-    private InvokerBuilder invokerBuilder;
-    private ProxyBuilder proxyBuilder;
+    private final InvokerBuilder invokerBuilder;
+    private final ProxyBuilder proxyBuilder;
 
     public Reflect(ObjectMapper mapper) {
         invokerBuilder = new ReflectionInvokerBuilder(mapper);
-        proxyBuilder = new ReflectionProxyBuilder(mapper);
+        proxyBuilder = new GeneratedProxyBuilder(mapper);
     }
 
     public Reflect(InvokerBuilder invokerBuilder,ProxyBuilder proxyBuilder) {
@@ -51,22 +70,56 @@ public class Reflect {
         this.proxyBuilder = proxyBuilder;
     }
 
+    /**
+     * Creates a Reflect whose invokers call handler methods through method
+     * handles, see {@link MethodHandleInvokerBuilder}.
+     */
+    public static Reflect withMethodHandles(ObjectMapper mapper) {
+        return new Reflect(new MethodHandleInvokerBuilder(mapper), new GeneratedProxyBuilder(mapper));
+    }
+
     @SuppressWarnings("unchecked")
-    public synchronized <T> Proxy<T> getProxy(Class<T> iface) {
-        Proxy<?> proxy = proxyCache.get(iface);
-        if (proxy == null) {
-            proxy = proxyBuilder.buildProxy(iface);
-            proxyCache.put(iface, proxy);
-        }
-        return (Proxy<T>) proxy;
+    public <T> Proxy<T> getProxy(Class<T> iface) {
+        return (Proxy<T>) proxyCache.get(iface);
     }
 
-    public synchronized Invoker getInvoker(Method method) {
+    public Invoker getInvoker(Method method) {
         Invoker invoker = invokerCache.get(method);
         if (invoker == null) {
+            // racing threads may both build one, only the first is kept
             invoker = invokerBuilder.buildInvoker(method);
-            invokerCache.put(method, invoker);
+            Invoker previous = invokerCache.putIfAbsent(method, invoker);
+            if (previous != null) {
+                invoker = previous;
+            }
         }
         return invoker;
     }
+
+    /**
+     * Returns a proxy creating the stub the annotation processor generated
+     * for an interface annotated with {@link RpcService}, if there is one.
+     */
+    private static <T> Proxy<T> findGeneratedProxy(final Class<T> iface) {
+        if (!iface.isAnnotationPresent(RpcService.class)) {
+            return null;
+        }
+        final Constructor<?> constructor;
+        try {
+            constructor = Class.forName(iface.getName() + "$RpcStub", true, iface.getClassLoader())
+                    .getConstructor(Session.class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+        return new Proxy<T>() {
+            public T newProxyInstance(Session s) {
+                try {
+                    return iface.cast(constructor.newInstance(s));
+                } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                    // FIXME exception
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
 }
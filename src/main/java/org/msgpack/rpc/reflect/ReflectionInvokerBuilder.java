@@ -17,14 +17,23 @@
 //
 package org.msgpack.rpc.reflect;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
+import java.io.IOException;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletionStage;
 
 import org.msgpack.rpc.*;
+import org.msgpack.rpc.message.InboundFrame;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +55,11 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
 
         public abstract void convert(Object[] params, JsonNode obj) throws IllegalArgumentException;
 
+        /**
+         * Reads the non-null value the parser is positioned at.
+         */
+        public abstract void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException;
+
         public void setNull(Object[] params) {
             params[getIndex()] = null;
         }
@@ -62,6 +76,10 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 throw new IllegalArgumentException();
             }
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            throw new IllegalArgumentException();
+        }
     }
 
     static class BooleanArgumentEntry extends ReflectionArgumentEntry {
@@ -75,6 +93,14 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 throw new IllegalArgumentException();
             }
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            if (parser.getCurrentToken().isBoolean()) {
+                params[getIndex()] = parser.getBooleanValue();
+            } else {
+                throw new IllegalArgumentException();
+            }
+        }
     }
 
     static class ByteArgumentEntry extends ReflectionArgumentEntry {
@@ -88,6 +114,14 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 throw new IllegalArgumentException();
             }
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            long value = readIntegral(parser);
+            if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException();
+            }
+            params[getIndex()] = (byte) value;
+        }
     }
 
     static class ShortArgumentEntry extends ReflectionArgumentEntry {
@@ -101,6 +135,14 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 throw new IllegalArgumentException();
             }
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            long value = readIntegral(parser);
+            if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+                throw new IllegalArgumentException();
+            }
+            params[getIndex()] = (short) value;
+        }
     }
 
     static class IntArgumentEntry extends ReflectionArgumentEntry {
@@ -114,6 +156,14 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 throw new IllegalArgumentException();
             }
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            long value = readIntegral(parser);
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException();
+            }
+            params[getIndex()] = (int) value;
+        }
     }
 
     static class LongArgumentEntry extends ReflectionArgumentEntry {
@@ -127,6 +177,10 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 throw new IllegalArgumentException();
             }
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            params[getIndex()] = readIntegral(parser);
+        }
     }
 
     static class FloatArgumentEntry extends ReflectionArgumentEntry {
@@ -140,6 +194,10 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 throw new IllegalArgumentException();
             }
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            params[getIndex()] = (float) readFloating(parser);
+        }
     }
 
     static class DoubleArgumentEntry extends ReflectionArgumentEntry {
@@ -153,6 +211,10 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 throw new IllegalArgumentException();
             }
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            params[getIndex()] = readFloating(parser);
+        }
     }
 
     static class ObjectArgumentEntry extends ReflectionArgumentEntry {
@@ -160,28 +222,83 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
         private ObjectMapper mapper;
         private JavaType type;
 
+        private ObjectReader reader;
+
         ObjectArgumentEntry(ArgumentEntry e, ObjectMapper mapper, Type genericType) {
             super(e);
             this.mapper = mapper;
             type = mapper.constructType(genericType);
+            reader = mapper.reader(type);
         }
 
         @SuppressWarnings("unchecked")
         public void convert(Object[] params, JsonNode obj) throws IllegalArgumentException {
             params[getIndex()] = mapper.convertValue(obj, type);
         }
+
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            params[getIndex()] = reader.readValue(parser);
+        }
+    }
+
+    /**
+     * Binds a bin value to a read-only view of the received frame when the
+     * transport allows it, else to a copy.
+     */
+    static class ByteBufferArgumentEntry extends ObjectArgumentEntry {
+
+        ByteBufferArgumentEntry(ArgumentEntry e, ObjectMapper mapper) {
+            super(e, mapper, ByteBuffer.class);
+        }
+
+        @Override
+        public void read(Object[] params, JsonParser parser) throws IOException, IllegalArgumentException {
+            ByteBuffer view = InboundFrame.slice(parser);
+            if (view == null) {
+                super.read(params, parser);
+            } else {
+                params[getIndex()] = view;
+            }
+        }
     }
 
-    private static class ReflectionInvoker implements Invoker {
+    static long readIntegral(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.VALUE_NUMBER_INT
+                || parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+            throw new IllegalArgumentException();
+        }
+        return parser.getLongValue();
+    }
+
+    static double readFloating(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        }
+        return readIntegral(parser);
+    }
+
+    static class ReflectionInvoker implements Invoker, ArgumentsBinder {
         protected Method method;
+        protected String methodName;
         protected int parameterLength;
         protected ReflectionArgumentEntry[] entries;
         protected int minimumArrayLength;
         boolean async;
+        protected ObjectMapper mapper;
 
-        public ReflectionInvoker(Method method, ReflectionArgumentEntry[] entries, boolean async) {
+        public ReflectionInvoker(Method method, ReflectionArgumentEntry[] entries, boolean async, ObjectMapper mapper) {
+            this(method.getName(), method.getParameterTypes().length, entries, async, mapper);
             this.method = method;
-            this.parameterLength = method.getParameterTypes().length;
+        }
+
+        /**
+         * Creates an invoker that only binds arguments, for generated dispatchers.
+         */
+        ReflectionInvoker(String methodName, int parameterLength, ReflectionArgumentEntry[] entries,
+                          boolean async, ObjectMapper mapper) {
+            this.methodName = methodName;
+            this.mapper = mapper;
+            this.parameterLength = parameterLength;
             this.entries = entries;
             this.async = async;
             this.minimumArrayLength = 0;
@@ -193,12 +310,104 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
             }
         }
 
-        public void invoke(Object target, Request request) throws Exception {
+        public Object[] readArguments(JsonParser parser) throws IOException {
+            final JsonStreamContext arguments = parser.getParsingContext();
+            try {
+                return readArgumentsImpl(parser);
+            } catch (IllegalArgumentException e) {
+                // what follows the array must not be read as arguments
+                ArgumentsReader.skipArguments(parser, arguments);
+                throw e;
+            }
+        }
+
+        private Object[] readArgumentsImpl(JsonParser parser) throws IOException {
             Object[] params = new Object[parameterLength];
+            int length = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                int i = length++;
+                if (i >= entries.length || !entries[i].isAvailable()) {
+                    parser.skipChildren();
+                    continue;
+                }
+
+                ReflectionArgumentEntry e = entries[i];
+                if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+                    if (i >= minimumArrayLength || e.isOptional()) {
+                        // Optional + nil => keep default value
+                    } else if (e.isRequired()) {
+                        // Required + nil => exception
+                        throw new IllegalArgumentException();
+                    } else {
+                        // Nullable + nil => set null
+                        e.setNull(params);
+                    }
+                } else {
+                    try {
+                        e.read(params, parser);
+                    } catch (IllegalArgumentException | JsonProcessingException ex) {
+                        logger.error(String.format("Expect Method:%s ArgIndex:%s Type:%s. But passed:%s", methodName, i, e.getGenericType(), parser.getCurrentToken()));
+                        throw new IllegalArgumentException(String.format(
+                                "%sth argument type is %s.But wrong type is sent.", i + 1, e.getJavaTypeName())
+                        );
+                    }
+                }
+            }
+            if (length < minimumArrayLength) {
+                throw new IllegalArgumentException(String.format("Method needs at least %s args.But only %s args are passed", minimumArrayLength, length));
+            }
+            return params;
+        }
+
+        public ArrayNode toArgumentsNode(Object[] params) {
+            ArrayNode args = mapper.createArrayNode();
+            if (params != null) {
+                for (ReflectionArgumentEntry e : entries) {
+                    args.addPOJO(e.isAvailable() ? params[e.getIndex()] : null);
+                }
+            }
+            return args;
+        }
+
+        public Object[] bindArguments(Request request) throws Exception {
+            Object[] params = request.getBoundArguments(this);
+            if (params == null) {
+                params = convertArguments(request);
+            }
+            return params;
+        }
+
+        public void invoke(Object target, Request request) throws Exception {
+            Object[] params = bindArguments(request);
             if (async) {
                 params[0] = request;
             }
 
+            Object result = call(target, params);
+
+            if (result instanceof CompletionStage) {
+                request.sendResultWhenComplete((CompletionStage<?>) result);
+            } else if (!async) {
+                request.sendResult(result);
+            }
+            // TODO exception
+        }
+
+        protected Object call(Object target, Object[] params) throws Exception {
+            try {
+                return method.invoke(target, params);
+            } catch (InvocationTargetException e ){
+                if (e.getCause() != null && e.getCause() instanceof Exception){
+                    throw (Exception)e.getCause();
+                } else{
+                    throw e;
+                }
+            }
+        }
+
+        private Object[] convertArguments(Request request) throws Exception {
+            Object[] params = new Object[parameterLength];
+
             // TODO set default values here
 
             try {
@@ -266,22 +475,7 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 //e.printStackTrace();
                 throw e;
             }
-
-            Object result;
-            try {
-                result = method.invoke(target, params);
-            } catch (InvocationTargetException e ){
-                if (e.getCause() != null && e.getCause() instanceof Exception){
-                    throw (Exception)e.getCause();
-                } else{
-                    throw e;
-                }
-            }
-
-            if (!async) {
-                request.sendResult(result);
-            }
-            // TODO exception
+            return params;
         }
     }
 
@@ -291,6 +485,20 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
             targetMethod.setAccessible(true);
         }
 
+        return new ReflectionInvoker(targetMethod, buildArgumentEntries(entries), async, mapper);
+    }
+
+    /**
+     * Builds the argument binding of a method without reflecting on it.
+     * Used by the dispatchers the annotation processor generates.
+     * @param entries the arguments in wire order, see {@link InvokerBuilder#readArgumentEntries}
+     */
+    public ArgumentsBinder buildArgumentsBinder(String methodName, int parameterLength,
+                                                ArgumentEntry[] entries) {
+        return new ReflectionInvoker(methodName, parameterLength, buildArgumentEntries(entries), false, mapper);
+    }
+
+    ReflectionArgumentEntry[] buildArgumentEntries(ArgumentEntry[] entries) {
         ReflectionArgumentEntry[] res = new ReflectionArgumentEntry[entries.length];
         for (int i = 0; i < entries.length; i++) {
             ArgumentEntry e = entries[i];
@@ -311,12 +519,13 @@ public class ReflectionInvokerBuilder extends InvokerBuilder {
                 res[i] = new FloatArgumentEntry(e);
             } else if (type.equals(double.class)) {
                 res[i] = new DoubleArgumentEntry(e);
+            } else if (type.equals(ByteBuffer.class)) {
+                res[i] = new ByteBufferArgumentEntry(e, mapper);
             } else {
                 res[i] = new ObjectArgumentEntry(e, mapper, e.getGenericType());
             }
         }
-
-        return new ReflectionInvoker(targetMethod, res, async);
+        return res;
     }
 }
 
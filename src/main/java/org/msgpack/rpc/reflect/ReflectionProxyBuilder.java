@@ -18,7 +18,6 @@
 package org.msgpack.rpc.reflect;
 
 import com.fasterxml.jackson.databind.JavaType;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.Map;
@@ -32,12 +31,14 @@ public class ReflectionProxyBuilder extends ProxyBuilder {
     private static class ReflectionMethodEntry {
         private String rpcName;
         private boolean async;
+        private boolean completionStage;
         private InvokerBuilder.ArgumentEntry[] argumentEntries;
         private JavaType returnType;
 
         public ReflectionMethodEntry(MethodEntry e, JavaType returnType) {
             this.rpcName = e.getRpcName();
             this.async = e.isAsync();
+            this.completionStage = e.isCompletionStage();
             this.argumentEntries = e.getArgumentEntries();
             this.returnType = returnType;
         }
@@ -88,20 +89,12 @@ public class ReflectionProxyBuilder extends ProxyBuilder {
             }
 
             Object[] params = e.sort(args);
-            if (e.isAsync()) {
-                Future<JsonNode> f = s.callAsyncApply(e.getRpcName(), params);
-                return new Future<>(mapper, f, e.returnType);
+            if (e.completionStage) {
+                return s.callAsync(e.getRpcName(), e.returnType, params);
+            } else if (e.isAsync()) {
+                return s.callAsyncApply(e.getRpcName(), e.returnType, params);
             } else {
-                JsonNode obj = s.callApply(e.getRpcName(), params);
-                if (obj.isNull()) {
-                    return null;
-                } else {
-                    try {
-                        return mapper.convertValue(obj, e.returnType);
-                    } catch (Exception ex) {
-                        return null;
-                    }
-                }
+                return s.callApply(e.getRpcName(), e.returnType, params);
             }
         }
     }
@@ -0,0 +1,54 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.transport;
+
+import java.util.concurrent.Executor;
+
+import org.msgpack.rpc.InFlightRequests;
+
+/**
+ * State the {@link RpcMessageHandler} keeps for one connection.
+ */
+public class Connection {
+    private final MessageSendable channel;
+    private final InFlightRequests inFlight;
+    private final Executor executor;
+
+    /**
+     * @param inFlight the requests of the connection, or null to not track them
+     * @param executor the executor that runs the connection's requests in
+     *                 order, or null to use the worker executor
+     */
+    public Connection(MessageSendable channel, InFlightRequests inFlight, Executor executor) {
+        this.channel = channel;
+        this.inFlight = inFlight;
+        this.executor = executor;
+    }
+
+    public MessageSendable getChannel() {
+        return channel;
+    }
+
+    public InFlightRequests getInFlightRequests() {
+        return inFlight;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+}
@@ -17,10 +17,28 @@
 //
 package org.msgpack.rpc.transport;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 
+import org.msgpack.rpc.message.InboundFrame;
 import org.msgpack.rpc.message.Messages;
+import org.msgpack.rpc.reflect.ArgumentsReader;
+import org.msgpack.rpc.InFlightRequests;
+import org.msgpack.rpc.Request;
 import org.msgpack.rpc.Session;
 import org.msgpack.rpc.Server;
 import org.msgpack.rpc.loop.EventLoop;
@@ -31,6 +49,8 @@ public class RpcMessageHandler {
     protected final Server server;
     protected final EventLoop loop;
     protected boolean useThread = false;
+    protected boolean ordered = false;
+    protected int decodeOffloadThreshold = 0;
 
     public RpcMessageHandler(Session session) {
         this(session, null);
@@ -55,6 +75,44 @@ public class RpcMessageHandler {
         useThread = value;
     }
 
+    /**
+     * Runs the messages of each connection one at a time and in order,
+     * while different connections still run in parallel. Only matters
+     * together with {@link #useThread}.
+     */
+    public void setOrdered(boolean value) {
+        ordered = value;
+    }
+
+    /**
+     * Frames of at least this many bytes are decoded on the worker
+     * executor instead of the calling I/O thread.
+     * @param bytes the size, 0 or less to decode every frame inline
+     */
+    public void setDecodeOffloadThreshold(int bytes) {
+        decodeOffloadThreshold = bytes;
+    }
+
+    /**
+     * Creates the state of a new connection; pass it to every
+     * {@link #handleMessage(Connection, InputStream)} of that connection
+     * and to {@link #connectionClosed} at the end.
+     */
+    public Connection newConnection(MessageSendable channel) {
+        Executor executor = null;
+        if (useThread && ordered) {
+            executor = new SerialExecutor(loop.getWorkerExecutor());
+        }
+        return new Connection(channel, new InFlightRequests(), executor);
+    }
+
+    /**
+     * Abandons the requests still in flight on a closed connection.
+     */
+    public void connectionClosed(Connection connection) {
+        connection.getInFlightRequests().cancelAll();
+    }
+
     static class HandleMessageTask implements Runnable {
         private RpcMessageHandler handler;
         private MessageSendable channel;
@@ -71,6 +129,103 @@ public class RpcMessageHandler {
         }
     }
 
+    static class FrameTask implements Runnable {
+        private RpcMessageHandler handler;
+        private Connection connection;
+        private InputStream frame;
+
+        FrameTask(RpcMessageHandler handler, Connection connection, InputStream frame) {
+            this.handler = handler;
+            this.connection = connection;
+            this.frame = frame;
+        }
+
+        public void run() {
+            handler.handleFrameImpl(connection, frame, true);
+        }
+    }
+
+    /**
+     * Stream over a received frame that remembers the frame, so that bin
+     * arguments can be bound to views of it.
+     */
+    static class FrameStream extends ByteBufInputStream {
+        final ByteBuf frame;
+        final int base;
+
+        FrameStream(ByteBuf frame) {
+            super(frame, true);
+            this.frame = frame;
+            this.base = frame.readerIndex();
+        }
+    }
+
+    static class DispatchTask implements Runnable {
+        private RpcMessageHandler handler;
+        private Request request;
+        private boolean notify;
+
+        DispatchTask(RpcMessageHandler handler, Request request, boolean notify) {
+            this.handler = handler;
+            this.request = request;
+            this.notify = notify;
+        }
+
+        public void run() {
+            handler.dispatchImpl(request, notify);
+        }
+    }
+
+    /**
+     * Handles one encoded message. The stream must hold exactly one message
+     * and is closed once it has been read.
+     */
+    public void handleMessage(MessageSendable channel, InputStream frame) {
+        handleMessage(new Connection(channel, null, null), frame);
+    }
+
+    /**
+     * Handles one encoded message of a connection. Messages are decoded on
+     * the calling thread in the order they arrive; only the dispatch of
+     * requests moves to the worker executor. Requests are registered with
+     * the connection's in-flight requests first, so that a cancel
+     * notification finds them even while they are still queued.
+     */
+    public void handleMessage(Connection connection, InputStream frame) {
+        handleFrameImpl(connection, frame, false);
+    }
+
+    /**
+     * Handles one encoded message of the given size. Frames at or above
+     * the {@link #setDecodeOffloadThreshold decode offload threshold} are
+     * decoded and dispatched on the connection's serial executor or the
+     * worker executor, so that a bulk payload does not hold up the other
+     * connections of the I/O thread. A cancel notification that arrives
+     * while such a request is still being decoded does not find it.
+     */
+    public void handleMessage(Connection connection, InputStream frame, int length) {
+        if (decodeOffloadThreshold > 0 && length >= decodeOffloadThreshold && server != null) {
+            Executor executor = connection.getExecutor() != null
+                    ? connection.getExecutor() : loop.getWorkerExecutor();
+            try {
+                executor.execute(new FrameTask(this, connection, frame));
+                return;
+            } catch (RejectedExecutionException e) {
+                // decoded here; the dispatch is then rejected as usual
+            }
+        }
+        handleFrameImpl(connection, frame, false);
+    }
+
+    /**
+     * Handles one received frame and releases it. {@link java.nio.ByteBuffer}
+     * arguments of requests are bound to views of the frame, which is then
+     * kept until the response has been encoded.
+     */
+    public void handleMessage(Connection connection, ByteBuf frame) {
+        handleMessage(connection, new FrameStream(frame), frame.readableBytes());
+    }
+
     public void handleMessage(MessageSendable channel, ArrayNode msg) {
         if (useThread) {
             loop.getWorkerExecutor().submit(
@@ -87,9 +242,11 @@ public class RpcMessageHandler {
         if (type == Messages.REQUEST) {
             // REQUEST
             int msgId = msg.get(1).asInt();
-            String method = msg.get(2).asText();
+            String method = readMethod(msg.get(2));
             ArrayNode args = (ArrayNode) msg.get(3);
-            handleRequest(channel, msgId, method, args);
+            JsonNode timeout = msg.get(4);
+            handleRequest(channel, msgId, method, args,
+                    timeout != null && timeout.isIntegralNumber() ? timeout.asLong() : -1);
 
         }
         else if (type == Messages.RESPONSE) {
@@ -102,7 +259,7 @@ public class RpcMessageHandler {
         }
         else if (type == Messages.NOTIFY) {
             // NOTIFY
-            String method = msg.get(1).asText();
+            String method = readMethod(msg.get(1));
             ArrayNode args = (ArrayNode) msg.get(2);
             handleNotify(channel, method, args);
 
@@ -113,18 +270,230 @@ public class RpcMessageHandler {
         }
     }
 
+    /**
+     * @param offloaded whether this already runs on the connection's
+     *                  executor or the worker executor
+     */
+    private void handleFrameImpl(Connection connection, InputStream frame, boolean offloaded) {
+        final MessageSendable channel = connection.getChannel();
+        final InFlightRequests inFlight = connection.getInFlightRequests();
+        // Everything is read before the message is dispatched: the parser's
+        // unpacker is per thread and may be reused by the handler.
+        Request request = null;
+        boolean notify = false;
+        try {
+            final ObjectMapper mapper = loop.getObjectMapper();
+            final JsonParser parser = mapper.getFactory().createParser(frame);
+            try {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    return; // FIXME error?
+                }
+                parser.nextToken();
+                int type = parser.getIntValue();
+                if (type == Messages.REQUEST) {
+                    // REQUEST
+                    parser.nextToken();
+                    int msgId = parser.getIntValue();
+                    parser.nextToken();
+                    String method = readMethod(parser);
+                    parser.nextToken();
+                    request = readRequest(parser, frame, channel, msgId, method);
+                    if (request != null && parser.nextToken() == JsonToken.VALUE_NUMBER_INT) {
+                        // optional fifth element: how long the client waits
+                        request.setTimeoutMillis(parser.getLongValue());
+                    }
+
+                } else if (type == Messages.RESPONSE) {
+                    // RESPONSE
+                    parser.nextToken();
+                    int msgId = parser.getIntValue();
+                    parser.nextToken();
+                    JsonNode error = readNode(mapper, parser);
+                    parser.nextToken();
+                    if (session != null) {
+                        session.onResponse(msgId, error, parser);
+                    }
+
+                } else if (type == Messages.NOTIFY) {
+                    // NOTIFY
+                    parser.nextToken();
+                    String method = readMethod(parser);
+                    parser.nextToken();
+                    if (Messages.CANCEL.equals(method)) {
+                        JsonNode args = readNode(mapper, parser);
+                        if (inFlight != null) {
+                            inFlight.cancel(args.path(0).asInt(), args.path(1).asBoolean(false));
+                        }
+                    } else {
+                        request = readRequest(parser, frame, null, 0, method);
+                        notify = true;
+                    }
+
+                } else {
+                    // FIXME error result
+                    throw new RuntimeException("unknown message type: " + type);
+                }
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            // FIXME error result
+            throw new RuntimeException("broken message", e);
+        } finally {
+            try {
+                frame.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        if (request != null && server != null) {
+            if (!notify && inFlight != null) {
+                inFlight.add(request);
+            }
+            if (offloaded ? !needsBulkhead(connection, request)
+                    : !useThread || isInline(connection, request)) {
+                dispatchImpl(request, notify);
+            } else {
+                offload(connection, request, notify);
+            }
+        }
+    }
+
+    /**
+     * Runs the request on the connection's serial executor if it is
+     * ordered, else on the method's bulkhead or the worker executor.
+     */
+    private void offload(Connection connection, Request request, boolean notify) {
+        try {
+            if (connection.getExecutor() != null) {
+                connection.getExecutor().execute(new DispatchTask(this, request, notify));
+                return;
+            }
+            ExecutorService executor = server.getBulkhead(request.getMethodName());
+            if (executor == null) {
+                executor = loop.getWorkerExecutor();
+            }
+            executor.submit(new DispatchTask(this, request, notify));
+        } catch (RejectedExecutionException e) {
+            server.onRejected(request, notify);
+        }
+    }
+
+    /**
+     * Whether a request decoded off the I/O thread still has to move to
+     * its method's bulkhead.
+     */
+    private boolean needsBulkhead(Connection connection, Request request) {
+        return useThread && connection.getExecutor() == null
+                && server.getBulkhead(request.getMethodName()) != null;
+    }
+
+    /**
+     * Whether a request for a {@link org.msgpack.rpc.annotation.NonBlocking}
+     * method can skip the worker thread. On an ordered connection it must
+     * also not overtake earlier messages still queued.
+     */
+    private boolean isInline(Connection connection, Request request) {
+        if (!server.isNonBlocking(request.getMethodName())) {
+            return false;
+        }
+        Executor executor = connection.getExecutor();
+        return !(executor instanceof SerialExecutor) || ((SerialExecutor) executor).isIdle();
+    }
+
+    private void dispatchImpl(Request request, boolean notify) {
+        if (notify) {
+            server.onNotify(request);
+        } else {
+            server.onRequest(request);
+        }
+    }
+
+    /**
+     * Reads the method slot, which holds either the name or, for clients
+     * that fetched {@link Server#getMethodIds}, the id of the method.
+     */
+    private String readMethod(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return methodName(parser.getIntValue());
+        }
+        return parser.getText();
+    }
+
+    private String readMethod(JsonNode method) {
+        if (method.isIntegralNumber()) {
+            return methodName(method.asInt());
+        }
+        return method.asText();
+    }
+
+    private String methodName(int id) {
+        String name = server == null ? null : server.getMethodName(id);
+        // an unknown id fails like an unknown name
+        return name != null ? name : "#" + id;
+    }
+
+    private Request readRequest(JsonParser parser, InputStream frame, MessageSendable channel,
+            int msgId, String method) throws IOException {
+        if (server == null) {
+            return null; // FIXME error result
+        }
+        ArgumentsReader reader = server.getArgumentsReader(method);
+        if (reader == null) {
+            ArrayNode args = (ArrayNode) loop.getObjectMapper().readTree(parser);
+            return new Request(channel, msgId, method, args);
+        }
+        Object[] params = null;
+        Exception error = null;
+        InboundFrame inbound = null;
+        if (frame instanceof FrameStream) {
+            inbound = InboundFrame.enter(((FrameStream) frame).frame, ((FrameStream) frame).base);
+        }
+        final JsonStreamContext arguments = parser.getParsingContext();
+        try {
+            params = reader.readArguments(parser);
+        } catch (Exception e) {
+            error = e;
+            // the optional deadline follows the arguments
+            ArgumentsReader.skipArguments(parser, arguments);
+        } finally {
+            if (inbound != null) {
+                inbound.exit();
+            }
+        }
+        Request request = new Request(channel, msgId, method, reader, params, error);
+        if (inbound != null && inbound.isSliced()) {
+            request.holdFrame(((FrameStream) frame).frame.retain());
+        }
+        return request;
+    }
+
+    private static JsonNode readNode(ObjectMapper mapper, JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return NullNode.getInstance();
+        }
+        return mapper.readTree(parser);
+    }
+
     private void handleRequest(MessageSendable channel, int msgId,
-            String method, ArrayNode args) {
+            String method, ArrayNode args, long timeoutMillis) {
         if (server == null) {
             return; // FIXME error result
         }
-        server.onRequest(channel, msgId, method, args);
+        Request request = new Request(channel, msgId, method, args);
+        if (timeoutMillis >= 0) {
+            request.setTimeoutMillis(timeoutMillis);
+        }
+        server.onRequest(request);
     }
 
     private void handleNotify(MessageSendable channel, String method, ArrayNode args) {
         if (server == null) {
             return; // FIXME error result?
         }
+        if (Messages.CANCEL.equals(method)) {
+            return; // no in-flight requests to cancel on this path
+        }
         server.onNotify(method, args);
     }
 
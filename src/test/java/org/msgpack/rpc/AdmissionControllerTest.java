@@ -0,0 +1,91 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+
+    private static long waited(long millis) {
+        return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void queueDelay() throws Exception {
+        AdmissionController admission = new AdmissionController(5, 100, 0);
+
+        // a short burst may wait up to the interval
+        assertTrue(admission.tryAcquire(waited(50)));
+        admission.release();
+        assertFalse(admission.tryAcquire(waited(150)));
+
+        // a standing queue: above target for longer than the interval
+        long start = System.nanoTime();
+        boolean shed = false;
+        while (!shed && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1)) {
+            if (admission.tryAcquire(waited(10))) {
+                admission.release();
+            } else {
+                shed = true;
+            }
+            Thread.sleep(10);
+        }
+        assertTrue(shed);
+        assertTrue(admission.isOverloaded());
+
+        // one request below target ends the overload
+        assertTrue(admission.tryAcquire(waited(0)));
+        admission.release();
+        assertFalse(admission.isOverloaded());
+        assertTrue(admission.tryAcquire(waited(10)));
+        admission.release();
+        assertEquals(0, admission.getRunning());
+    }
+
+    @Test
+    public void idleQueue() throws Exception {
+        AdmissionController admission = new AdmissionController(5, 50, 0);
+        assertTrue(admission.tryAcquire(waited(20)));
+        admission.release();
+
+        // no requests for longer than the interval: the next one that waited
+        // above target starts a new burst instead of a standing queue
+        Thread.sleep(120);
+        assertTrue(admission.tryAcquire(waited(20)));
+        admission.release();
+        assertFalse(admission.isOverloaded());
+        assertEquals(0, admission.getShedCount());
+    }
+
+    @Test
+    public void concurrencyLimit() throws Exception {
+        AdmissionController admission = new AdmissionController(5, 100, 1);
+        assertTrue(admission.tryAcquire(waited(0)));
+        assertFalse(admission.tryAcquire(waited(0)));
+        admission.release();
+        assertTrue(admission.tryAcquire(waited(0)));
+        admission.release();
+        assertEquals(1, admission.getShedCount());
+    }
+}
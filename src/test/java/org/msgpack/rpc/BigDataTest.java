@@ -1,12 +1,28 @@
 package org.msgpack.rpc;
 
+import org.msgpack.rpc.config.TcpClientConfig;
 import org.msgpack.rpc.dispatcher.*;
 import org.msgpack.rpc.loop.*;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.*;
 
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.msgpack.rpc.message.Messages;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class BigDataTest {
 	
@@ -31,6 +47,118 @@ public class BigDataTest {
 		}
 	}
 
+	public static class BlobHandler {
+		@SuppressWarnings("unused")
+		public ByteBuffer echo(ByteBuffer data) {
+			return data;
+		}
+
+		@SuppressWarnings("unused")
+		public boolean isView(ByteBuffer data) {
+			return data.isReadOnly();
+		}
+	}
+
+	@Test
+	public void byteBuffers() throws Exception {
+		EventLoop loop = EventLoop.start();
+		Server svr = new Server(loop);
+		Client c = new Client("127.0.0.1", 19851, loop);
+		TcpClientConfig config = new TcpClientConfig();
+		config.setCallerThreadEncoding(true);
+		Client encoding = new Client("127.0.0.1", 19851, config, loop);
+		c.setRequestTimeout(10);
+		encoding.setRequestTimeout(10);
+
+		try {
+			svr.serve(new BlobHandler());
+			svr.listen(19851);
+
+			byte[] blob = new byte[256 * 1024];
+			new Random().nextBytes(blob);
+			byte[] small = Arrays.copyOf(blob, 16);
+
+			assertTrue(c.callApply("isView", Boolean.class, ByteBuffer.wrap(blob)));
+			for (Client client : Arrays.asList(c, encoding)) {
+				for (byte[] data : Arrays.asList(blob, small, new byte[0])) {
+					ByteBuffer result = client.callApply("echo", ByteBuffer.class, ByteBuffer.wrap(data));
+					byte[] bytes = new byte[result.remaining()];
+					result.get(bytes);
+					assertArrayEquals(data, bytes);
+					// plain byte arrays are bins too
+					assertArrayEquals(data, client.callApply("echo", byte[].class, (Object) data));
+				}
+			}
+
+			// encoded on the calling thread, so the buffer may be reused at once
+			byte[] reused = blob.clone();
+			Future<byte[]> f = encoding.callAsyncApply("echo", byte[].class, ByteBuffer.wrap(reused));
+			Arrays.fill(reused, (byte) 0);
+			assertArrayEquals(blob, f.get());
+			// written from as it is
+			assertArrayEquals(blob, c.callApply("echo", byte[].class, ByteBuffer.wrap(blob).asReadOnlyBuffer()));
+		} finally {
+			svr.close();
+			c.close();
+			encoding.close();
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	public void pipelinedViewsWhileNotWritable() throws Exception {
+		EventLoop loop = EventLoop.start();
+		Server svr = new Server(loop);
+		ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+		Socket socket = new Socket();
+		// the client reads nothing until every request is sent, so the
+		// responses to the first half wait in the server's outbound buffer
+		// while it reads the second half into pooled buffers
+		socket.setReceiveBufferSize(4096);
+
+		try {
+			svr.serve(new BlobHandler());
+			svr.listen(19853);
+			socket.connect(new InetSocketAddress("127.0.0.1", 19853));
+
+			// msgids stay below 128, so every response is 9 bytes of
+			// headers followed by the blob
+			int num = 120;
+			int size = 64 * 1024;
+			byte[][] blobs = new byte[num][];
+			Random random = new Random();
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			for (int i = 0; i < num; i++) {
+				blobs[i] = new byte[size];
+				random.nextBytes(blobs[i]);
+				out.write(mapper.writeValueAsBytes(new Object[] {
+						Messages.REQUEST, i, "echo", new Object[] { blobs[i] } }));
+				if (i == num / 2) {
+					out.flush();
+					Thread.sleep(500);
+				}
+			}
+			out.flush();
+
+			byte[] responses = new byte[num * (9 + size)];
+			new DataInputStream(socket.getInputStream()).readFully(responses);
+			JsonParser parser = mapper.getFactory().createParser(responses);
+			Set<Integer> answered = new HashSet<>();
+			for (int i = 0; i < num; i++) {
+				JsonNode response = mapper.readTree(parser);
+				int msgId = response.get(1).asInt();
+				assertTrue(response.get(2).isNull());
+				assertArrayEquals("response " + msgId, blobs[msgId], response.get(3).binaryValue());
+				answered.add(msgId);
+			}
+			assertEquals(num, answered.size());
+		} finally {
+			socket.close();
+			svr.close();
+			loop.shutdown();
+		}
+	}
+
 	@Test
 	public void syncBigDataLoad() throws Exception {
 		EventLoop loop = EventLoop.start();
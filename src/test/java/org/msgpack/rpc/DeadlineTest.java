@@ -0,0 +1,149 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.msgpack.rpc.config.TcpClientConfig;
+import org.msgpack.rpc.error.RemoteError;
+import org.msgpack.rpc.loop.EventLoop;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeadlineTest {
+
+    public static class TestHandler {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @SuppressWarnings("unused")
+        public long remaining() {
+            return Request.current().getRemainingMillis();
+        }
+
+        @SuppressWarnings("unused")
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        @SuppressWarnings("unused")
+        public String waitWhile(int waitMSecs) throws Exception {
+            calls.incrementAndGet();
+            Thread.sleep(waitMSecs);
+            return "ok";
+        }
+    }
+
+    @Test
+    public void remainingBudget() throws Exception {
+        EventLoop loop = EventLoop.start();
+        Server svr = new Server(loop);
+        svr.serve(new TestHandler());
+        svr.listen(19850);
+
+        TcpClientConfig config = new TcpClientConfig();
+        config.setDeadlinePropagation(true);
+        config.setRequestTimeoutMillis(5000);
+        Client c = new Client("127.0.0.1", 19850, config, loop);
+        Client legacy = new Client("127.0.0.1", 19850, loop);
+        try {
+            long remaining = c.callApply("remaining", Long.class);
+            assertTrue("remaining " + remaining, remaining > 0 && remaining <= 5000);
+
+            assertEquals(Long.MAX_VALUE, (long) legacy.callApply("remaining", Long.class));
+        } finally {
+            svr.close();
+            c.close();
+            legacy.close();
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    public void wrongArgumentBeforeDeadline() throws Exception {
+        EventLoop loop = EventLoop.start();
+        Server svr = new Server(loop);
+        svr.serve(new TestHandler());
+        svr.listen(19850);
+
+        TcpClientConfig config = new TcpClientConfig();
+        config.setDeadlinePropagation(true);
+        config.setRequestTimeoutMillis(2000);
+        Client c = new Client("127.0.0.1", 19850, config, loop);
+        try {
+            // the int after the failed argument is not the deadline
+            for (Object wrong : new Object[] { "x", new int[] { 1, 2 } }) {
+                long start = System.currentTimeMillis();
+                try {
+                    c.callApply("add", wrong, 0);
+                    fail("Must throw exception");
+                } catch (RemoteError e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("wrong type"));
+                }
+                assertTrue(System.currentTimeMillis() - start < 1000);
+            }
+            assertEquals(3, (int) c.callApply("add", Integer.class, 1, 2));
+        } finally {
+            svr.close();
+            c.close();
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    public void dropExpired() throws Exception {
+        // one worker thread, so the second call queues behind the first
+        EventLoop svrLoop = EventLoop.start(Executors.newSingleThreadExecutor(),
+                new ObjectMapper(new MessagePackFactory()));
+        EventLoop loop = EventLoop.start();
+        Server svr = new Server(svrLoop);
+        TestHandler handler = new TestHandler();
+        svr.serve(handler);
+        svr.listen(19850);
+
+        TcpClientConfig config = new TcpClientConfig();
+        config.setDeadlinePropagation(true);
+        config.setRequestTimeoutMillis(100);
+        Client c = new Client("127.0.0.1", 19850, config, loop);
+        try {
+            Future<JsonNode> busy = c.callAsyncApply("waitWhile", 300);
+            Future<JsonNode> expired = c.callAsyncApply("waitWhile", 0);
+            busy.join();
+            expired.join();
+            assertEquals("timedout", expired.getError().get(0).asText());
+
+            // answered once the worker is free, after the expired call was dropped
+            c.setRequestTimeoutMillis(5000);
+            assertEquals("ok", c.callApply("waitWhile", String.class, 0));
+            assertEquals(2, handler.calls.get());
+        } finally {
+            svr.close();
+            c.close();
+            loop.shutdown();
+            svrLoop.shutdown();
+        }
+    }
+}
@@ -18,11 +18,33 @@
 package org.msgpack.rpc;
 
 import org.msgpack.rpc.loop.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.msgpack.rpc.error.RemoteError;
 
 public class FutureTest {
     public static class TestHandler {
@@ -37,6 +59,36 @@ public class FutureTest {
             Thread.sleep(time_millis);
             return "ok" + time_millis;
         }
+
+        @SuppressWarnings("unused")
+        public Map<String, List<Integer>> m3(String key) {
+            Map<String, List<Integer>> map = new HashMap<>();
+            map.put(key, Arrays.asList(1, 2, 3));
+            return map;
+        }
+    }
+
+    public static class CancelHandler {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        @SuppressWarnings("unused")
+        public String block() {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "done";
+        }
+
+        @SuppressWarnings("unused")
+        public String echo(String a1) {
+            return a1;
+        }
     }
 
     public interface TestInterface {
@@ -47,6 +99,12 @@ public class FutureTest {
         Future<String> m2(Integer time_millis);
     }
 
+    public interface TestStageInterface {
+        CompletableFuture<String> m1(String a1);
+
+        CompletionStage<String> m2Async(Integer time_millis); // /Async$/ will be removed
+    }
+
     @Test
     public void future() throws Exception {
         EventLoop loop = EventLoop.start();
@@ -84,4 +142,195 @@ public class FutureTest {
             loop.shutdown();
         }
     }
+
+    @Test
+    public void localTimeout() throws Exception {
+        EventLoop loop = EventLoop.start();
+
+        Server svr = new Server(loop);
+        svr.serve(new TestHandler());
+        svr.listen(19860);
+
+        Client cli = new Client("127.0.0.1", 19860, loop);
+        TestInterface c = cli.proxy(TestInterface.class);
+
+        try {
+            // no timer, so giving up the wait must drop the request
+            cli.setRequestTimeoutMillis(0);
+            Future<String> f1 = c.m2(2000);
+            f1.join(100, TimeUnit.MILLISECONDS);
+            assertEquals("timedout", f1.getError().get(0).asText());
+            assertFalse(cli.hasPendingRequests());
+
+            // a blocking call fails the same way when its timer expires
+            cli.setRequestTimeoutMillis(100);
+            try {
+                cli.callApply("m2", String.class, 2000);
+                fail("Must time out");
+            } catch (RemoteError e) {
+                assertEquals("timedout", e.getMessage());
+            }
+            assertFalse(cli.hasPendingRequests());
+
+        } finally {
+            svr.close();
+            cli.close();
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    public void callbackWithFullWorkers() throws Exception {
+        EventLoop svrLoop = EventLoop.start();
+        // one worker and no queue, so a second task is rejected
+        EventLoop loop = EventLoop.startBounded(1, 0);
+
+        Server svr = new Server(svrLoop);
+        svr.serve(new TestHandler());
+        svr.listen(19860);
+
+        Client cli = new Client("127.0.0.1", 19860, loop);
+        final CountDownLatch busy = new CountDownLatch(1);
+
+        try {
+            Future<String> f1 = cli.callAsyncApply("m1", String.class, "a1");
+            f1.join();
+            loop.getWorkerExecutor().submit(() -> {
+                busy.await();
+                return null;
+            });
+
+            // attached after completion, the callback runs on this thread
+            final AtomicInteger called = new AtomicInteger();
+            f1.attachCallback(called::incrementAndGet);
+            assertEquals(1, called.get());
+            assertEquals("ok" + "a1", f1.get());
+
+        } finally {
+            busy.countDown();
+            svr.close();
+            cli.close();
+            loop.shutdown();
+            svrLoop.shutdown();
+        }
+    }
+
+    @Test
+    public void typedResult() throws Exception {
+        EventLoop loop = EventLoop.start();
+
+        Server svr = new Server(loop);
+        svr.serve(new TestHandler());
+        svr.listen(19860);
+
+        Client cli = new Client("127.0.0.1", 19860, loop);
+
+        try {
+            Future<Map<String, List<Integer>>> f1 = cli.callAsyncApply("m3",
+                    new TypeReference<Map<String, List<Integer>>>() {}, "k");
+            Future<JsonNode> f2 = cli.callAsyncApply("m3", "k");
+
+            assertEquals(Arrays.asList(1, 2, 3), f1.get().get("k"));
+            assertEquals(3, f2.get().get("k").get(2).asInt());
+
+        } finally {
+            svr.close();
+            cli.close();
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    public void completableFuture() throws Exception {
+        EventLoop loop = EventLoop.start();
+
+        Server svr = new Server(loop);
+        svr.serve(new TestHandler());
+        svr.listen(19860);
+
+        ExecutorService completion = Executors.newSingleThreadExecutor(r -> new Thread(r, "completion"));
+        Client cli = new Client("127.0.0.1", 19860, loop);
+        cli.setCompletionExecutor(completion);
+        TestStageInterface c = cli.proxy(TestStageInterface.class);
+
+        try {
+            CompletableFuture<String> f1 = c.m1("a1")
+                    .thenCompose(r -> c.m2Async(5).thenApply(s -> r + s))
+                    .thenApply(s -> s + Thread.currentThread().getName())
+                    .toCompletableFuture();
+            assertEquals("oka1ok5completion", f1.get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<Map<String, List<Integer>>> f2 = cli.callAsync("m3",
+                    new TypeReference<Map<String, List<Integer>>>() {}, "k");
+            assertEquals(Arrays.asList(1, 2, 3), f2.get(5, TimeUnit.SECONDS).get("k"));
+
+            cli.setRequestTimeoutMillis(100);
+            try {
+                c.m2Async(60000).toCompletableFuture().get(5, TimeUnit.SECONDS);
+                fail("Must time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RemoteError);
+                assertEquals("timedout", e.getCause().getMessage());
+            }
+
+        } finally {
+            svr.close();
+            cli.close();
+            loop.shutdown();
+            completion.shutdown();
+        }
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        // one worker thread, so the second call queues behind the first
+        EventLoop svrLoop = EventLoop.start(Executors.newSingleThreadExecutor(),
+                new ObjectMapper(new MessagePackFactory()));
+        EventLoop loop = EventLoop.start();
+
+        Server svr = new Server(svrLoop);
+        CancelHandler handler = new CancelHandler();
+        svr.serve(handler);
+        svr.listen(19860);
+
+        Client cli = new Client("127.0.0.1", 19860, loop);
+
+        try {
+            Future<JsonNode> running = cli.callAsyncApply("block");
+            assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+            Future<JsonNode> queued = cli.callAsyncApply("block");
+
+            assertTrue(queued.cancel(false));
+            assertTrue(queued.isCancelled());
+            assertTrue(queued.isDone());
+            try {
+                queued.get();
+                fail("Must be cancelled");
+            } catch (CancellationException e) {
+                // OK
+            }
+            assertFalse(queued.cancel(false));
+
+            assertTrue(running.cancel(true));
+            assertTrue(handler.interrupted.await(5, TimeUnit.SECONDS));
+
+            // runs after the queued call would have
+            assertEquals("ok", cli.callApply("echo", String.class, "ok"));
+            assertEquals(1, handler.calls.get());
+
+            CompletableFuture<String> stage = cli.callAsync("block", String.class);
+            while (handler.calls.get() < 2) {
+                Thread.sleep(10);
+            }
+            assertTrue(stage.cancel(true));
+            // the single worker is free again only if the call was interrupted
+            cli.setRequestTimeoutMillis(5000);
+            assertEquals("ok", cli.callApply("echo", String.class, "ok"));
+        } finally {
+            svr.close();
+            cli.close();
+            loop.shutdown();
+            svrLoop.shutdown();
+        }
+    }
 }
@@ -0,0 +1,136 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.msgpack.rpc.loop.EventLoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RequestTableTest {
+	private static final int OPS_PER_THREAD = 100000;
+
+	@Test
+	public void overflow() throws Exception {
+		EventLoop loop = EventLoop.start();
+		Client cli = new Client("127.0.0.1", 19851, loop);
+		try {
+			RequestTable table = new RequestTable(4);
+			List<FutureImpl> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				FutureImpl f = new FutureImpl(cli);
+				assertEquals(i, table.add(f));
+				futures.add(f);
+			}
+			for (int i = 9; i >= 0; i--) {
+				assertSame(futures.get(i), table.remove(i));
+				assertNull(table.remove(i));
+			}
+			assertTrue(table.isEmpty());
+		} finally {
+			cli.close();
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	public void wraparound() throws Exception {
+		RequestTable table = new RequestTable(4);
+		// msgids keep counting while the slots are reused
+		for (int i = 0; i < 100; i++) {
+			FutureImpl f = new FutureImpl(null);
+			assertEquals(i, table.add(f));
+			assertSame(f, table.remove(i));
+			assertNull(table.remove(i));
+		}
+		// an unanswered request holds its slot, the next round overflows
+		FutureImpl held = new FutureImpl(null);
+		assertEquals(100, table.add(held));
+		List<FutureImpl> futures = new ArrayList<>();
+		for (int i = 101; i < 110; i++) {
+			FutureImpl f = new FutureImpl(null);
+			assertEquals(i, table.add(f));
+			futures.add(f);
+		}
+		assertSame(futures.get(3), table.remove(104));
+		assertSame(held, table.remove(100));
+		assertEquals(8, table.removeAll().size());
+		assertTrue(table.isEmpty());
+	}
+
+	@Test
+	public void concurrentAddRemove() throws Exception {
+		final RequestTable table = new RequestTable(16);
+		final int threads = 8;
+		final AtomicInteger lost = new AtomicInteger();
+		run(threads, new Runnable() {
+			public void run() {
+				List<FutureImpl> pending = new ArrayList<>();
+				for (int i = 0; i < OPS_PER_THREAD; i++) {
+					FutureImpl f = new FutureImpl(null);
+					table.add(f);
+					pending.add(f);
+					// keep a few requests in flight so slots collide
+					if (pending.size() > 4) {
+						FutureImpl done = pending.remove(0);
+						if (table.remove(done.getMessageId()) != done) {
+							lost.incrementAndGet();
+						}
+					}
+				}
+				for (FutureImpl done : pending) {
+					if (table.remove(done.getMessageId()) != done) {
+						lost.incrementAndGet();
+					}
+				}
+			}
+		});
+		assertEquals(0, lost.get());
+		assertTrue(table.isEmpty());
+	}
+
+	private static void run(int threads, final Runnable task) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					task.run();
+				}
+			});
+			workers[i].start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+}
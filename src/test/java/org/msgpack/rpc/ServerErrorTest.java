@@ -1,12 +1,30 @@
 package org.msgpack.rpc;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import org.msgpack.rpc.annotation.Bulkhead;
+import org.msgpack.rpc.annotation.NonBlocking;
+import org.msgpack.rpc.config.SendOverflowPolicy;
+import org.msgpack.rpc.config.TcpClientConfig;
+import org.msgpack.rpc.error.OverloadError;
 import org.msgpack.rpc.error.RemoteError;
+import org.msgpack.rpc.error.TransportError;
 import org.msgpack.rpc.loop.EventLoop;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 /**
  * Test when server throws exceptions.
  * User: takeshita
@@ -14,6 +32,40 @@ import org.msgpack.rpc.loop.EventLoop;
  */
 public class ServerErrorTest {
 
+    public static class BulkheadServer {
+
+        @Bulkhead("slow")
+        @SuppressWarnings("unused")
+        public String slow(int waitMSecs) throws Exception {
+            Thread.sleep(waitMSecs);
+            return "slow";
+        }
+
+        @SuppressWarnings("unused")
+        public String fast() {
+            return "fast";
+        }
+    }
+
+    public static class ForwardServer {
+        final Client target;
+
+        ForwardServer(Client target) {
+            this.target = target;
+        }
+
+        @NonBlocking
+        @SuppressWarnings("unused")
+        public String forward(String message) {
+            try {
+                target.callAsyncApply("echo", message);
+                return "queued";
+            } catch (TransportError e) {
+                return e.getMessage();
+            }
+        }
+    }
+
     public static class TestServer{
 
         @SuppressWarnings("unused")
@@ -27,6 +79,20 @@ public class ServerErrorTest {
             return "ok";
         }
 
+        @SuppressWarnings("unused")
+        public void waitAsync(final Callback<Object> callback, final int waitMSecs) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(waitMSecs);
+                    } catch (InterruptedException e) {
+                        // respond anyway
+                    }
+                    callback.sendResult("ok");
+                }
+            }).start();
+        }
+
         @SuppressWarnings("unused")
         public String throwException(String errorMessage) throws Exception{
             throw new Exception(errorMessage);
@@ -163,4 +229,220 @@ public class ServerErrorTest {
             }
         });
     }
+
+    @Test
+    public void millisecondTimeout()  throws Exception {
+        call(new CallFunc(){
+            public void apply(Client client) {
+                client.setRequestTimeoutMillis(100);
+                long start = System.currentTimeMillis();
+                Future<JsonNode> f = client.callAsyncApply("waitWhile", 3000);
+                try {
+                    // the timer completes the call, no timed wait needed
+                    f.join();
+                } catch (InterruptedException e) {
+                    fail("Interrupted");
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                assertEquals("timedout", f.getError().get(0).asText());
+                assertTrue("took " + elapsed + "ms", elapsed >= 100 && elapsed < 1000);
+            }
+        });
+    }
+
+    @Test
+    public void bulkhead() throws Exception {
+        // the slow method gets one thread of its own and no queue
+        EventLoop loop = EventLoop.startBounded(2, 16);
+        Server svr = new Server(loop);
+        Client c = new Client("127.0.0.1", 19850, loop);
+        c.setRequestTimeout(10);
+        try {
+            svr.serve(new BulkheadServer());
+            svr.addBulkhead("slow", 1, 0);
+            svr.listen(19850);
+
+            Future<String> running = c.callAsyncApply("slow", String.class, 500);
+            Thread.sleep(100);
+            try {
+                c.callApply("slow", String.class, 0);
+                fail("Must be rejected");
+            } catch (RemoteError e) {
+                // OK
+            }
+            long start = System.currentTimeMillis();
+            assertEquals("fast", c.callApply("fast", String.class));
+            assertTrue(System.currentTimeMillis() - start < 400);
+            assertEquals("slow", running.get());
+        } finally {
+            svr.close();
+            c.close();
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    public void overload() throws Exception {
+        EventLoop loop = EventLoop.start();
+        Server svr = new Server(loop);
+        Client c = new Client("127.0.0.1", 19850, loop);
+        c.setRequestTimeout(10);
+        try {
+            svr.serve(new TestServer());
+            svr.setAdmissionController(new AdmissionController(5, 100, 1));
+            svr.listen(19850);
+
+            Future<String> running = c.callAsyncApply("waitWhile", String.class, 300);
+            Thread.sleep(100);
+            try {
+                c.callApply("echo", "shed");
+                fail("Must be shed");
+            } catch (OverloadError e) {
+                assertEquals(OverloadError.CODE, e.getMessage());
+            }
+            assertEquals("ok", running.get());
+            // the slot is released only after the response is written
+            while (svr.getAdmissionController().getRunning() > 0) {
+                Thread.sleep(1);
+            }
+            assertEquals("ok", c.callApply("echo", String.class, "ok"));
+        } finally {
+            svr.close();
+            c.close();
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    public void overloadAsync() throws Exception {
+        EventLoop loop = EventLoop.start();
+        Server svr = new Server(loop);
+        Client c = new Client("127.0.0.1", 19850, loop);
+        c.setRequestTimeout(10);
+        try {
+            svr.serve(new TestServer());
+            svr.setAdmissionController(new AdmissionController(5, 100, 1));
+            svr.listen(19850);
+
+            // the dispatch returns at once, the permit is held until the callback responds
+            Future<String> running = c.callAsyncApply("waitAsync", String.class, 300);
+            Thread.sleep(100);
+            assertEquals(1, svr.getAdmissionController().getRunning());
+            try {
+                c.callApply("echo", "shed");
+                fail("Must be shed");
+            } catch (OverloadError e) {
+                assertEquals(OverloadError.CODE, e.getMessage());
+            }
+            assertEquals("ok", running.get());
+            assertEquals(0, svr.getAdmissionController().getRunning());
+            assertEquals("ok", c.callApply("echo", String.class, "ok"));
+        } finally {
+            svr.close();
+            c.close();
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    public void connectFailed() throws Exception {
+        EventLoop loop = EventLoop.start();
+        try {
+            for (boolean multiplexed : new boolean[] { true, false }) {
+                TcpClientConfig config = new TcpClientConfig();
+                config.setMultiplexed(multiplexed);
+                // nothing listens here and the call never times out
+                Client c = new Client("127.0.0.1", 19850, config, loop);
+                c.setRequestTimeout(0);
+                try {
+                    Future<JsonNode> f = c.callAsyncApply("echo", "lost");
+                    f.join(5, TimeUnit.SECONDS);
+                    assertTrue(f.isDone());
+                    assertEquals("connect failed", f.getError().get(0).asText());
+                } finally {
+                    c.close();
+                }
+            }
+        } finally {
+            loop.shutdown();
+        }
+    }
+
+    @Test
+    public void sendQueueFull() throws Exception {
+        EventLoop loop = EventLoop.start();
+        TcpClientConfig config = new TcpClientConfig();
+        config.setSendQueueCapacity(1);
+        config.setSendOverflowPolicy(SendOverflowPolicy.FAIL);
+        // the accept backlog is full, so the connect neither completes nor
+        // fails and queued messages are never written
+        ServerSocket listener = new ServerSocket();
+        listener.bind(new InetSocketAddress("127.0.0.1", 19850), 1);
+        List<Socket> backlog = fillBacklog(listener);
+        Client c = new Client("127.0.0.1", 19850, config, loop);
+        try {
+            c.notifyApply("echo", "first");
+            try {
+                c.callAsyncApply("echo", "second");
+                fail("Must throw exception");
+            } catch (TransportError e) {
+                assertEquals("send queue full", e.getMessage());
+            }
+        } finally {
+            c.close();
+            loop.shutdown();
+            for (Socket s : backlog) {
+                s.close();
+            }
+            listener.close();
+        }
+    }
+
+    @Test
+    public void sendQueueFullOnIoThread() throws Exception {
+        EventLoop loop = EventLoop.start();
+        TcpClientConfig config = new TcpClientConfig();
+        config.setSendQueueCapacity(1);
+        config.setSendOverflowPolicy(SendOverflowPolicy.BLOCK);
+        config.setSendTimeout(5);
+        ServerSocket listener = new ServerSocket();
+        listener.bind(new InetSocketAddress("127.0.0.1", 19850), 1);
+        List<Socket> backlog = fillBacklog(listener);
+        Client stuck = new Client("127.0.0.1", 19850, config, loop);
+        Server svr = new Server(loop);
+        Client c = new Client("127.0.0.1", 19851, loop);
+        c.setRequestTimeout(10);
+        try {
+            svr.serve(new ForwardServer(stuck));
+            svr.listen(19851);
+            stuck.notifyApply("echo", "first");
+            // the handler runs on an I/O thread, which must not wait for space
+            long start = System.nanoTime();
+            assertEquals("send queue full", c.callApply("forward", String.class, "second"));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            svr.close();
+            c.close();
+            stuck.close();
+            loop.shutdown();
+            for (Socket s : backlog) {
+                s.close();
+            }
+            listener.close();
+        }
+    }
+
+    private static List<Socket> fillBacklog(ServerSocket listener) throws IOException {
+        List<Socket> sockets = new ArrayList<Socket>();
+        while (true) {
+            Socket s = new Socket();
+            try {
+                s.connect(listener.getLocalSocketAddress(), 200);
+            } catch (SocketTimeoutException e) {
+                s.close();
+                return sockets;
+            }
+            sockets.add(s);
+        }
+    }
 }
@@ -17,11 +17,32 @@
 //
 package org.msgpack.rpc;
 
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.msgpack.rpc.address.IPAddress;
+import org.msgpack.rpc.annotation.NonBlocking;
+import org.msgpack.rpc.config.TcpClientConfig;
+import org.msgpack.rpc.config.TcpServerConfig;
 import org.msgpack.rpc.dispatcher.*;
+import org.msgpack.rpc.error.RemoteError;
 import org.msgpack.rpc.loop.*;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ServerTest {
 	private static final String MESSAGE = "ok";
@@ -31,6 +52,93 @@ public class ServerTest {
 		}
 	}
 
+	public static class OrderedHandler {
+		final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+
+		@SuppressWarnings("unused")
+		public void record(int seq) {
+			received.add(seq);
+		}
+
+		@SuppressWarnings("unused")
+		public int count() {
+			return received.size();
+		}
+	}
+
+	public static class ClearableHandler {
+		final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+
+		@SuppressWarnings("unused")
+		public void clear() {
+			received.clear();
+		}
+
+		@SuppressWarnings("unused")
+		public void record(int seq) {
+			received.add(seq);
+		}
+
+		@SuppressWarnings("unused")
+		public int count() {
+			return received.size();
+		}
+	}
+
+	public static class Unserializable {
+		public String getValue() {
+			throw new IllegalStateException("not serializable");
+		}
+	}
+
+	public static class ThreadHandler {
+		@NonBlocking
+		@SuppressWarnings("unused")
+		public String inline() {
+			return Thread.currentThread().getName();
+		}
+
+		@SuppressWarnings("unused")
+		public String offloaded() {
+			return Thread.currentThread().getName();
+		}
+
+		@NonBlocking
+		@SuppressWarnings("unused")
+		public String inlineWith(String data) {
+			return Thread.currentThread().getName();
+		}
+	}
+
+	@Test
+	public void listenAfterClose() throws Exception {
+		EventLoop loop = EventLoop.start();
+		Server svr = new Server(loop);
+		Server other = new Server(loop);
+		Client c = new Client("127.0.0.1", 19850, loop);
+		c.setRequestTimeout(10);
+		try {
+			svr.serve(new TestDispatcher());
+			other.serve(new TestDispatcher());
+			svr.listen(19850);
+			try {
+				other.listen(19850);
+				fail("Must throw exception");
+			} catch (IOException e) {
+				// the port is taken
+			}
+			// an open connection does not keep the port once the server closes
+			assertEquals(MESSAGE, c.callApply("test", String.class));
+			svr.close();
+			other.listen(19850);
+		} finally {
+			svr.close();
+			other.close();
+			c.close();
+			loop.shutdown();
+		}
+	}
+
 	@Test
 	public void syncLoad() throws Exception {
 		EventLoop loop = EventLoop.start();
@@ -91,5 +199,222 @@ public class ServerTest {
 			loop.shutdown();
 		}
 	}
-}
 
+	@Test
+	public void pipelinedLoad() throws Exception {
+		EventLoop loop = EventLoop.start();
+		Server svr = new Server(loop);
+		TcpClientConfig config = new TcpClientConfig();
+		config.setConnectionCount(2);
+		Client c = new Client("127.0.0.1", 19850, config, loop);
+		c.setRequestTimeout(10);
+
+		try {
+			svr.serve(new TestDispatcher());
+			svr.listen(19850);
+
+			int num = 1000;
+
+			long start = System.currentTimeMillis();
+			List<Future<String>> futures = new ArrayList<Future<String>>(num);
+			for (int i = 0; i < num; i++) {
+				futures.add(c.callAsyncApply("test", String.class));
+			}
+			for (Future<String> f : futures) {
+				assertEquals(MESSAGE, f.get());
+			}
+			long finish = System.currentTimeMillis();
+
+			double result = num / ((double)(finish - start) / 1000);
+			System.out.println("pipelined: "+result+" calls per sec");
+		} finally {
+			svr.close();
+			c.close();
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	public void orderedLoad() throws Exception {
+		EventLoop loop = EventLoop.start();
+		Server svr = new Server(loop);
+		OrderedHandler handler = new OrderedHandler();
+		Client c = new Client("127.0.0.1", 19850, loop);
+		c.setRequestTimeout(10);
+
+		try {
+			svr.serve(handler);
+			TcpServerConfig config = new TcpServerConfig(new IPAddress(19850));
+			config.setOrderedExecution(true);
+			svr.listen(config);
+
+			int num = 1000;
+
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < num; i++) {
+				c.notifyApply("record", i);
+			}
+			// runs after every notification of the connection
+			assertEquals(num, (int) c.callApply("count", Integer.class));
+			long finish = System.currentTimeMillis();
+
+			for (int i = 0; i < num; i++) {
+				assertEquals(i, (int) handler.received.get(i));
+			}
+
+			double result = num / ((double)(finish - start) / 1000);
+			System.out.println("ordered: "+result+" calls per sec");
+		} finally {
+			svr.close();
+			c.close();
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	public void nonBlocking() throws Exception {
+		EventLoop loop = EventLoop.start(Executors.newCachedThreadPool(r -> new Thread(r, "worker")),
+				new ObjectMapper(new MessagePackFactory()));
+		Server svr = new Server(loop);
+		Client c = new Client("127.0.0.1", 19850, loop);
+		c.setRequestTimeout(10);
+
+		try {
+			svr.serve(new ThreadHandler());
+			svr.listen(19850);
+
+			assertNotEquals("worker", c.callApply("inline", String.class));
+			assertEquals("worker", c.callApply("offloaded", String.class));
+		} finally {
+			svr.close();
+			c.close();
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	public void methodIds() throws Exception {
+		EventLoop loop = EventLoop.start();
+		Server svr = new Server(loop);
+		OrderedHandler handler = new OrderedHandler();
+		svr.serve(handler);
+		TcpServerConfig serverConfig = new TcpServerConfig(new IPAddress(19850));
+		// the notification runs before the call that follows it
+		serverConfig.setOrderedExecution(true);
+		svr.listen(serverConfig);
+
+		// the client negotiates as soon as it is created, so the server must listen
+		TcpClientConfig config = new TcpClientConfig();
+		config.setMethodIdNegotiation(true);
+		Client c = new Client("127.0.0.1", 19850, config, loop);
+		Client plain = new Client("127.0.0.1", 19850, loop);
+		c.setRequestTimeout(10);
+		plain.setRequestTimeout(10);
+
+		try {
+
+			Map<String, Integer> ids = c.negotiateMethodIds().get(10, TimeUnit.SECONDS);
+			assertEquals(2, ids.size());
+			assertTrue(ids.get("count") < ids.get("record"));
+			assertEquals(ids, c.getMethodIds());
+			assertEquals("count", svr.getMethodName(ids.get("count")));
+			assertEquals("record", svr.getMethodName(ids.get("record")));
+			assertNull(svr.getMethodName(ids.get("record") + 1));
+			assertNull(svr.getMethodName(1));
+
+			c.notifyApply("record", 1);
+			assertEquals(1, (int) c.callApply("count", Integer.class));
+			// names are still accepted
+			plain.notifyApply("record", 2);
+			assertEquals(2, (int) plain.callApply("count", Integer.class));
+			assertTrue(plain.getMethodIds().isEmpty());
+
+			// the old id of count is the position of clear now
+			ClearableHandler replaced = new ClearableHandler();
+			replaced.received.add(7);
+			svr.serve(replaced);
+			try {
+				c.callApply("count", Integer.class);
+				fail("Must reject the stale id");
+			} catch (RemoteError e) {
+			}
+			assertEquals(1, replaced.received.size());
+			// the session sends names again and fetches the new ids
+			assertEquals(1, (int) c.callApply("count", Integer.class));
+			long end = System.currentTimeMillis() + 10000;
+			while (!c.getMethodIds().containsKey("clear") && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+			assertEquals(svr.getMethodIds(), c.getMethodIds());
+			c.notifyApply("record", 3);
+			assertEquals(2, (int) c.callApply("count", Integer.class));
+		} finally {
+			svr.close();
+			c.close();
+			plain.close();
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	public void callerThreadEncoding() throws Exception {
+		EventLoop loop = EventLoop.start();
+		Server svr = new Server(loop);
+		OrderedHandler handler = new OrderedHandler();
+		TcpClientConfig config = new TcpClientConfig();
+		config.setCallerThreadEncoding(true);
+		config.setConnectionCount(2);
+		Client c = new Client("127.0.0.1", 19850, config, loop);
+		c.setRequestTimeout(10);
+
+		try {
+			svr.serve(handler);
+			svr.listen(19850);
+
+			try {
+				c.callApply("record", new Unserializable());
+				fail();
+			} catch (IllegalArgumentException e) {
+				// raised on the calling thread, nothing was sent
+			}
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < 100; i++) {
+				futures.add(c.callAsyncApply("record", Void.class, i));
+			}
+			for (Future<Void> f : futures) {
+				f.get();
+			}
+			assertEquals(100, (int) c.callApply("count", Integer.class));
+		} finally {
+			svr.close();
+			c.close();
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	public void decodeOffload() throws Exception {
+		EventLoop loop = EventLoop.start(Executors.newCachedThreadPool(r -> new Thread(r, "worker")),
+				new ObjectMapper(new MessagePackFactory()));
+		Server svr = new Server(loop);
+		Client c = new Client("127.0.0.1", 19850, loop);
+		c.setRequestTimeout(10);
+
+		try {
+			svr.serve(new ThreadHandler());
+			TcpServerConfig config = new TcpServerConfig(new IPAddress(19850));
+			config.setDecodeOffloadThreshold(1024);
+			svr.listen(config);
+
+			char[] large = new char[4096];
+			Arrays.fill(large, 'x');
+			assertNotEquals("worker", c.callApply("inlineWith", String.class, "small"));
+			// decoded and then run on the worker even though it may run inline
+			assertEquals("worker", c.callApply("inlineWith", String.class, new String(large)));
+		} finally {
+			svr.close();
+			c.close();
+			loop.shutdown();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.dispatcher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MethodTableTest {
+
+    @Test
+    public void lookup() {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            map.put("method" + i, i);
+        }
+        map.put("", -1);
+        map.put("a", -2);
+        // same length and first, middle and last chars
+        map.put("getAxB", -3);
+        map.put("gotAyB", -4);
+
+        MethodTable<Integer> table = MethodTable.build(map);
+        for (Map.Entry<String, Integer> e : map.entrySet()) {
+            // a copy, as a decoded name would be
+            assertEquals(e.getValue(), table.get(new String(e.getKey().toCharArray())));
+        }
+        assertNull(table.get("method200"));
+        assertNull(table.get("b"));
+        assertNull(MethodTable.build(new HashMap<String, Integer>()).get("a"));
+
+        Map<String, Integer> distinct = new HashMap<>();
+        distinct.put("add", 1);
+        distinct.put("sub", 2);
+        distinct.put("echo", 3);
+        assertTrue(MethodTable.build(distinct).isPerfect());
+    }
+}
@@ -0,0 +1,109 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.impl.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MessagePackDecoderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+
+    private ArrayNode message(int msgId, int stringLength) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < stringLength; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        ObjectNode map = mapper.createObjectNode();
+        map.putNull("nil");
+        map.put("long", Long.MAX_VALUE);
+        map.put("negative", -100000);
+        ArrayNode args = mapper.createArrayNode();
+        args.add(sb.toString());
+        args.add(1.5);
+        args.add(true);
+        args.add(new byte[300]);
+        args.add(map);
+        ArrayNode msg = mapper.createArrayNode();
+        msg.add(0);
+        msg.add(msgId);
+        msg.add("method");
+        msg.add(args);
+        return msg;
+    }
+
+    private JsonNode read(EmbeddedChannel channel) throws Exception {
+        ByteBuf frame = channel.readInbound();
+        if (frame == null) {
+            return null;
+        }
+        return mapper.readTree(new ByteBufInputStream(frame, true));
+    }
+
+    @Test
+    public void byteByByte() throws Exception {
+        ArrayNode expected = message(1, 70000);
+        byte[] bytes = mapper.writeValueAsBytes(expected);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new MessagePackDecoder());
+        for (int i = 0; i < bytes.length - 1; i++) {
+            channel.writeInbound(Unpooled.wrappedBuffer(bytes, i, 1));
+        }
+        assertNull(read(channel));
+
+        channel.writeInbound(Unpooled.wrappedBuffer(bytes, bytes.length - 1, 1));
+        assertEquals(expected, read(channel));
+        assertNull(read(channel));
+    }
+
+    @Test
+    public void coalesced() throws Exception {
+        JsonNode first = message(1, 10);
+        JsonNode second = message(2, 300);
+        JsonNode third = message(3, 20);
+        byte[] a = mapper.writeValueAsBytes(first);
+        byte[] b = mapper.writeValueAsBytes(second);
+        byte[] c = mapper.writeValueAsBytes(third);
+
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeBytes(a).writeBytes(b).writeBytes(c, 0, 5);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new MessagePackDecoder());
+        channel.writeInbound(buf);
+        assertEquals(first, read(channel));
+        assertEquals(second, read(channel));
+        assertNull(read(channel));
+
+        channel.writeInbound(Unpooled.wrappedBuffer(c, 5, c.length - 5));
+        assertEquals(third, read(channel));
+        assertNull(read(channel));
+    }
+}
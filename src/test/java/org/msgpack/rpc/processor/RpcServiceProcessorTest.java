@@ -0,0 +1,157 @@
+//
+// MessagePack-RPC for Java
+//
+// Copyright (C) 2010 FURUHASHI Sadayuki
+//
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+//
+//        http://www.apache.org/licenses/LICENSE-2.0
+//
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+package org.msgpack.rpc.processor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.msgpack.rpc.Client;
+import org.msgpack.rpc.Future;
+import org.msgpack.rpc.Server;
+import org.msgpack.rpc.annotation.Index;
+import org.msgpack.rpc.annotation.NotNullable;
+import org.msgpack.rpc.annotation.Optional;
+import org.msgpack.rpc.annotation.RpcService;
+import org.msgpack.rpc.builder.DefaultDispatcherBuilder;
+import org.msgpack.rpc.error.RemoteError;
+import org.msgpack.rpc.loop.EventLoop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RpcServiceProcessorTest {
+
+    @RpcService
+    public interface Calc {
+        int add(int a, int b);
+        String join(@Index(1) String b, @Index(0) String a, @Optional String c);
+        List<String> split(@NotNullable String s);
+        void store(String v);
+        Future<Integer> addAsync(int a, int b);
+        CompletableFuture<String> echo(String s);
+        CompletableFuture<List<String>> splitAsync(String s);
+    }
+
+    public static class CalcHandler implements Calc {
+        volatile String stored;
+
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        public String join(String b, String a, String c) {
+            return a + b + c;
+        }
+
+        public List<String> split(String s) {
+            return Arrays.asList(s.split(","));
+        }
+
+        public void store(String v) {
+            stored = v;
+        }
+
+        public Future<Integer> addAsync(int a, int b) {
+            throw new UnsupportedOperationException();
+        }
+
+        public CompletableFuture<String> echo(final String s) {
+            if (s == null) {
+                CompletableFuture<String> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalArgumentException("nothing to echo"));
+                return failed;
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return s;
+            });
+        }
+
+        public CompletableFuture<List<String>> splitAsync(String s) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    public void generatedStubAndDispatcher() throws Exception {
+        EventLoop loop = EventLoop.start();
+        Server svr = new Server(loop);
+        Client c = new Client("127.0.0.1", 19851, loop);
+        c.setRequestTimeout(10);
+        try {
+            CalcHandler handler = new CalcHandler();
+            assertTrue(new DefaultDispatcherBuilder().build(handler, loop.getObjectMapper())
+                    .getClass().getName().endsWith("$RpcDispatcher"));
+            svr.serve(handler);
+            svr.listen(19851);
+
+            Calc calc = c.proxy(Calc.class);
+            assertTrue(calc.getClass().getName().endsWith("$RpcStub"));
+
+            assertEquals(3, calc.add(1, 2));
+            assertEquals(7, (int) calc.addAsync(3, 4).get(5, TimeUnit.SECONDS));
+            assertEquals("abc", calc.join("b", "a", "c"));
+            assertEquals(Arrays.asList("x", "y"), calc.split("x,y"));
+            calc.store("v");
+            assertEquals("v", handler.stored);
+
+            // optional argument omitted
+            assertEquals("abnull", c.callApply("join", String.class, "a", "b"));
+            try {
+                c.callApply("join", String.class, "a");
+                fail("Must throw exception");
+            } catch (RemoteError e) {
+                assertEquals("Method needs at least 2 args.But only 1 args are passed", e.getMessage());
+            }
+            try {
+                calc.split(null);
+                fail("Must throw exception");
+            } catch (RemoteError e) {
+                // OK
+            }
+            try {
+                c.callApply("unknown", String.class);
+                fail("Must throw exception");
+            } catch (RemoteError e) {
+                // OK
+            }
+            // completed by the dispatcher once the handler's future is
+            assertEquals("a", calc.echo("a").get(5, TimeUnit.SECONDS));
+            try {
+                c.callApply("echo", String.class, new Object[] { null });
+                fail("Must throw exception");
+            } catch (RemoteError e) {
+                assertEquals("nothing to echo", e.getMessage());
+            }
+            // served by split, the client side twin is not dispatched
+            assertEquals(Arrays.asList("x", "y"), calc.splitAsync("x,y").get(5, TimeUnit.SECONDS));
+        } finally {
+            svr.close();
+            c.close();
+            loop.shutdown();
+        }
+    }
+}
@@ -18,13 +18,76 @@
 package org.msgpack.rpc.reflect;
 
 import org.msgpack.rpc.*;
+import org.msgpack.rpc.annotation.NonBlocking;
+import org.msgpack.rpc.dispatcher.MethodDispatcher;
+import org.msgpack.rpc.error.RemoteError;
 
 import java.util.*;
 
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class DispatcherTest extends ReflectTest {
+
+	public static class TypedHandler {
+
+		@SuppressWarnings("unused")
+		public String m01(long a1, double a2) {
+			return "m01" + a1 + a2;
+		}
+
+		@SuppressWarnings("unused")
+		public String m02(byte a1, short a2, float a3) {
+			return "m02" + a1 + a2 + a3;
+		}
+
+		@SuppressWarnings("unused")
+		public String m03(Map<String, List<Integer>> a1) {
+			int sum = 0;
+			for (int i : a1.get("k")) {
+				sum += i;
+			}
+			return "m03" + sum;
+		}
+
+		@SuppressWarnings("unused")
+		public void m04(String a1) {
+			throw new IllegalStateException("m04" + a1);
+		}
+	}
+
+	@Test
+	public void typedArguments() throws Exception {
+		Context context = startServer(new TypedHandler());
+		Client c = context.getClient();
+		try {
+			String result;
+
+			result = c.callApply("m01", String.class, 7, 2);
+			assertEquals("m01" + 7L + 2.0, result);
+
+			result = c.callApply("m01", String.class, Long.MAX_VALUE, 0.5);
+			assertEquals("m01" + Long.MAX_VALUE + 0.5, result);
+
+			result = c.callApply("m02", String.class, 1, 300, 1.5);
+			assertEquals("m02" + 1 + 300 + 1.5f, result);
+
+			Map<String, List<Integer>> map = new HashMap<>();
+			map.put("k", Arrays.asList(1, 2, 3));
+			result = c.callApply("m03", String.class, map);
+			assertEquals("m03" + 6, result);
+
+			try {
+				c.callApply("m02", String.class, 1000, 1, 1);
+				fail("Must throw exception");
+			} catch (RemoteError e) {
+				assertEquals("1th argument type is byte.But wrong type is sent.", e.getMessage());
+			}
+		} finally {
+			context.close();
+		}
+	}
 	@Test
 	public void syncHandler() throws Exception {
 		Context context = startServer(new SyncHandler());
@@ -112,5 +175,95 @@ public class DispatcherTest extends ReflectTest {
 			context.close();
 		}
 	}
-}
 
+	@Test
+	public void methodHandleInvoker() throws Exception {
+		Context context = startServer(new MethodDispatcher(
+				Reflect.withMethodHandles(mapper), new TypedHandler()));
+		Client c = context.getClient();
+		try {
+			String result;
+
+			result = c.callApply("m01", String.class, 7, 2);
+			assertEquals("m01" + 7L + 2.0, result);
+
+			result = c.callApply("m02", String.class, 1, 300, 1.5);
+			assertEquals("m02" + 1 + 300 + 1.5f, result);
+
+			Map<String, List<Integer>> map = new HashMap<>();
+			map.put("k", Arrays.asList(1, 2, 3));
+			result = c.callApply("m03", String.class, map);
+			assertEquals("m03" + 6, result);
+
+			try {
+				c.callApply("m04", String.class, "a");
+				fail("Must throw exception");
+			} catch (RemoteError e) {
+				assertEquals("m04a", e.getMessage());
+			}
+		} finally {
+			context.close();
+		}
+	}
+
+	public static class OverloadHandler {
+
+		@SuppressWarnings("unused")
+		public String m01(int a1) {
+			return "one" + a1;
+		}
+
+		@SuppressWarnings("unused")
+		public String m01(int a1, int a2) {
+			return "two" + a1 + a2;
+		}
+
+		@SuppressWarnings("unused")
+		public String m02(String a1) {
+			return "m02" + a1;
+		}
+	}
+
+	public static class MixedOverloadHandler {
+
+		@NonBlocking
+		@SuppressWarnings("unused")
+		public String m01(int a1) {
+			return "one" + a1;
+		}
+
+		@SuppressWarnings("unused")
+		public String m01(int a1, int a2) {
+			return "two" + a1 + a2;
+		}
+	}
+
+	@Test
+	public void mixedOverloads() throws Exception {
+		try {
+			new MethodDispatcher(new Reflect(mapper), new MixedOverloadHandler(), true);
+			fail("Must throw exception");
+		} catch (IllegalArgumentException e) {
+			// the request would run inline or not depending on the name only
+		}
+	}
+
+	@Test
+	public void overloadByArity() throws Exception {
+		Context context = startServer(new MethodDispatcher(new Reflect(mapper), new OverloadHandler(), true));
+		Client c = context.getClient();
+		try {
+			assertEquals("one1", c.callApply("m01", String.class, 1));
+			assertEquals("two12", c.callApply("m01", String.class, 1, 2));
+			assertEquals("m02a", c.callApply("m02", String.class, "a"));
+			try {
+				c.callApply("m03", String.class);
+				fail("Must throw exception");
+			} catch (RemoteError e) {
+				// OK
+			}
+		} finally {
+			context.close();
+		}
+	}
+}
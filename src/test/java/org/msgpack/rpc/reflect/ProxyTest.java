@@ -18,9 +18,19 @@
 package org.msgpack.rpc.reflect;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
+import org.msgpack.rpc.Client;
+import org.msgpack.rpc.loop.EventLoop;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ProxyTest extends ReflectTest {
 
@@ -84,4 +94,95 @@ public class ProxyTest extends ReflectTest {
     		throw new Exception("Error");
     	}
     }
+
+    public interface TypedRpc {
+        long m01(long a1, double a2);
+        int m02(byte a1, short a2, float a3, boolean a4);
+        void m03(String a1);
+        int[] m04(@org.msgpack.rpc.annotation.Index(1) int a2, @org.msgpack.rpc.annotation.Index(0) int[] a1);
+        CompletableFuture<String> m05Async(String a1);
+        org.msgpack.rpc.Future<String> m06Async();
+    }
+
+    public static class TypedHandler {
+        public String last;
+
+        public long m01(long a1, double a2) {
+            return a1 + (long) a2;
+        }
+
+        public int m02(byte a1, short a2, float a3, boolean a4) {
+            return a4 ? a1 + a2 + (int) a3 : 0;
+        }
+
+        public void m03(String a1) {
+            last = a1;
+        }
+
+        public int[] m04(int[] a1, int a2) {
+            int[] r = a1.clone();
+            r[0] = a2;
+            return r;
+        }
+
+        public String m05(String a1) {
+            return "m05" + a1;
+        }
+
+        public String m06() {
+            return "m06";
+        }
+    }
+
+    @Test
+    public void generatedProxy() throws Exception {
+        TypedHandler handler = new TypedHandler();
+        Context context = startServer(handler);
+        TypedRpc c = context.getClient().proxy(TypedRpc.class);
+        try {
+            assertTrue(c.getClass().getName().endsWith("$$RpcProxy"));
+
+            assertEquals(Long.MAX_VALUE, c.m01(Long.MAX_VALUE - 2, 2.5));
+            assertEquals(1 + 300 + 2, c.m02((byte) 1, (short) 300, 2.5f, true));
+
+            c.m03("furuhashi");
+            assertEquals("furuhashi", handler.last);
+
+            assertArrayEquals(new int[] { 7, 2, 3 }, c.m04(7, new int[] { 1, 2, 3 }));
+            assertEquals("m05a", c.m05Async("a").get(5, TimeUnit.SECONDS));
+            assertEquals("m06", c.m06Async().get(5, TimeUnit.SECONDS));
+        } finally {
+            context.close();
+        }
+    }
+
+    @Test
+    public void sharedReflect() throws Exception {
+        Context context = startServer(new SyncHandler());
+        Client other = new Client("127.0.0.1", context.getPort());
+        try {
+            Reflect reflect = EventLoop.defaultEventLoop().getReflect();
+            assertSame(reflect.getProxy(TestRpc.class), reflect.getProxy(TestRpc.class));
+
+            TestRpc a = context.getClient().proxy(TestRpc.class);
+            TestRpc b = other.proxy(TestRpc.class);
+            assertSame(a.getClass(), b.getClass());
+            assertEquals("m01", b.m01());
+
+            // concurrent lookups on a fresh cache agree on one proxy
+            final Reflect fresh = new Reflect(mapper);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<java.util.concurrent.Future<Proxy<TestRpc>>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(() -> fresh.getProxy(TestRpc.class)));
+            }
+            for (java.util.concurrent.Future<Proxy<TestRpc>> r : results) {
+                assertSame(fresh.getProxy(TestRpc.class), r.get());
+            }
+            executor.shutdown();
+        } finally {
+            other.close();
+            context.close();
+        }
+    }
 }
@@ -153,13 +153,17 @@ public abstract class ReflectTest {
 
 	int port = 19860;
 
-	public synchronized Context startServer(Object handler) throws Exception {
+	public Context startServer(Object handler) throws Exception {
+		return startServer(new ReflectionMethodDispatcher(handler,
+				MethodSelector.selectRpcServerMethod(handler.getClass())));
+	}
+
+	public synchronized Context startServer(Dispatcher dispatcher) throws Exception {
 		Server svr = new Server(EventLoop.defaultEventLoop());
 		Client c = new Client("127.0.0.1", port);
 		c.setRequestTimeout(10);
 		try {
-		    svr.serve(new ReflectionMethodDispatcher(handler,
-		            MethodSelector.selectRpcServerMethod(handler.getClass())));
+		    svr.serve(dispatcher);
 			svr.listen(port);
 		} catch (Exception e) {
 			svr.close();